@@ -3,13 +3,21 @@ package org.libcode;
 import org.libcode.lines.LineNumberMode;
 import java.awt.BorderLayout;
 import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextPane;
 import javax.swing.border.Border;
+import org.libcode.fold.FoldProvider;
+import org.libcode.fold.FoldRegion;
+import org.libcode.highlight.Lexer;
+import org.libcode.highlight.TokenCache;
+import org.libcode.intelisense.CompletionProvider;
 import org.libcode.intelisense.IntellisenseItem;
 import org.libcode.layers.Layer;
 import org.libcode.layers.LayerIndex;
@@ -30,6 +38,7 @@ public final class CodeArea extends JPanel {
 		JScrollPane scrollPane = new JScrollPane(this.codeArea);
 		this.gutter = new Gutter(this.codeArea, scrollPane);
 		scrollPane.setRowHeaderView(this.gutter);
+		scrollPane.getViewport().addChangeListener(e -> this.codeArea.updateVisibleLines());
 		setLayout(new BorderLayout());
 		this.add(scrollPane, BorderLayout.CENTER);
 
@@ -119,6 +128,55 @@ public final class CodeArea extends JPanel {
 		return codeArea.getFoldTriggerPairs();
 	}
 
+	/**
+	 * Computes the folds with {@code provider}, e.g. an
+	 * {@link org.libcode.fold.IndentFoldProvider}, instead of the fold symbol
+	 * pairs. null goes back to the symbol pairs.
+	 */
+	public void setFoldProvider(FoldProvider provider) {
+		codeArea.setFoldProvider(provider);
+	}
+
+	public FoldProvider getFoldProvider() {
+		return codeArea.getFoldProvider();
+	}
+
+	public void collapseAllFolds() {
+		codeArea.collapseAllFolds();
+	}
+
+	public void expandAllFolds() {
+		codeArea.expandAllFolds();
+	}
+
+	/**
+	 * Shows {@code depth} levels of nested folds expanded and collapses the
+	 * deeper ones, 0 collapses all of them.
+	 */
+	public void collapseFoldsToDepth(int depth) {
+		codeArea.collapseFoldsToDepth(depth);
+	}
+
+	public void collapseFolds(Predicate<FoldRegion> filter) {
+		codeArea.collapseFolds(filter);
+	}
+
+	public void expandFolds(Predicate<FoldRegion> filter) {
+		codeArea.expandFolds(filter);
+	}
+
+	/**
+	 * @return the collapsed folds, to be restored with
+	 * {@link #setCollapsedFolds}
+	 */
+	public int[] getCollapsedFolds() {
+		return codeArea.getCollapsedFoldLines();
+	}
+
+	public void setCollapsedFolds(int[] collapsedFolds) {
+		codeArea.setCollapsedFoldLines(collapsedFolds);
+	}
+
 	public void setLineMode(LineNumberMode mode) {
 		gutter.setMode(mode);
 	}
@@ -139,6 +197,64 @@ public final class CodeArea extends JPanel {
 		codeArea.addHighlightedWords(words, color, false, false);
 	}
 
+	public void setLexer(Lexer lexer) {
+		codeArea.setLexer(lexer);
+	}
+
+	public Lexer getLexer() {
+		return codeArea.getLexer();
+	}
+
+	public void setTokenStyle(int tokenType, Color color, boolean bold, boolean italic) {
+		codeArea.setTokenStyle(tokenType, color, bold, italic);
+	}
+
+	public void setTokenStyle(int tokenType, Color color) {
+		codeArea.setTokenStyle(tokenType, color, false, false);
+	}
+
+	public void setTokenCache(TokenCache cache) {
+		codeArea.setTokenCache(cache);
+	}
+
+	public TokenCache getTokenCache() {
+		return codeArea.getTokenCache();
+	}
+
+	/**
+	 * Highlights the semantic tokens of an analyzer on top of the lexer
+	 * tokens. {@code data} holds (deltaLine, deltaStartColumn, length,
+	 * tokenType) tuples, delta encoded like LSP semantic tokens.
+	 */
+	public void setSemanticTokens(int[] data) {
+		codeArea.setSemanticTokens(data);
+	}
+
+	/**
+	 * Replaces {@code deleteCount} ints of the last semantic token data at
+	 * {@code start} with {@code data}, so a re-analysis only ships what
+	 * changed.
+	 */
+	public void editSemanticTokens(int start, int deleteCount, int[] data) {
+		codeArea.editSemanticTokens(start, deleteCount, data);
+	}
+
+	public void clearSemanticTokens() {
+		codeArea.clearSemanticTokens();
+	}
+
+	public void setPaintTimeHighlighting(boolean enabled) {
+		codeArea.setPaintTimeHighlighting(enabled);
+	}
+
+	public void setViewportHighlighting(boolean enabled) {
+		codeArea.setViewportHighlighting(enabled, 100, 2000);
+	}
+
+	public void setViewportHighlighting(boolean enabled, int marginLines, int maxStyledLines) {
+		codeArea.setViewportHighlighting(enabled, marginLines, maxStyledLines);
+	}
+
 	public void addCompletions(List<IntellisenseItem> completions) {
 		codeArea.addCompletions(completions);
 	}
@@ -146,4 +262,16 @@ public final class CodeArea extends JPanel {
 	public void addCompletion(IntellisenseItem completion) {
 		codeArea.addCompletion(completion);
 	}
+
+	public void setCompletionStatsFile(Path file) throws IOException {
+		codeArea.setCompletionStatsFile(file);
+	}
+
+	public void addCompletionProvider(CompletionProvider provider) {
+		codeArea.addCompletionProvider(provider);
+	}
+
+	public void removeCompletionProvider(CompletionProvider provider) {
+		codeArea.removeCompletionProvider(provider);
+	}
 }
@@ -0,0 +1,28 @@
+package org.libcode.fold;
+
+/**
+ * A change to the fold regions of a document, as computed by a
+ * {@link FoldProvider}: the regions starting on the lines in
+ * {@link #lines} are replaced by {@link #regions}.
+ *
+ * @author hexaredecimal
+ */
+public final class FoldDelta {
+
+	/** No change at all. */
+	public static final FoldDelta NONE = new FoldDelta(new int[0], new int[0]);
+
+	/** the start lines of the replaced regions, ascending */
+	public final int[] lines;
+	/** (start line, end line) pairs, every start line one of {@link #lines} */
+	public final int[] regions;
+
+	public FoldDelta(int[] lines, int[] regions) {
+		this.lines = lines;
+		this.regions = regions;
+	}
+
+	public boolean isEmpty() {
+		return lines.length == 0;
+	}
+}
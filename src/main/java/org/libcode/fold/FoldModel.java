@@ -0,0 +1,452 @@
+package org.libcode.fold;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiPredicate;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Position;
+
+/**
+ * The fold regions of a document, with a per-line index for the questions
+ * the views ask while laying out and painting.
+ *
+ * For every line the index holds the first region starting on it and the
+ * start line of the outermost collapsed region hiding it, so whether a
+ * paragraph is hidden or a line starts a fold is an array lookup. A Fenwick
+ * tree over the visible lines maps between lines and visual lines, the rows
+ * they are shown on, in O(log n) either way.
+ *
+ * The index is rebuilt lazily in one pass over the lines and the regions
+ * after the regions changed or lines were inserted or removed. Typing
+ * within a line leaves it alone. Collapsing or expanding a region only
+ * updates the lines it spans.
+ *
+ * Collapsing many regions at once through {@link #updateCollapsed}
+ * rebuilds the index a single time instead.
+ *
+ * Collapsing has to go through {@link #setCollapsed}, setting
+ * {@link FoldRegion#collapsed} directly does not update the index.
+ *
+ * @author hexaredecimal
+ */
+public class FoldModel implements DocumentListener {
+
+	private final Document doc;
+	private final List<FoldRegion> regions = new ArrayList<>();
+	private boolean dirty = true;
+	private int lineCount = 0;
+	// first region starting on each line
+	private FoldRegion[] startingAt = new FoldRegion[0];
+	// start line of the outermost collapsed region hiding each line, or -1
+	private int[] hiddenBy = new int[0];
+	// collapsed regions as start line << 32 | (MAX_VALUE - end line), sorted so outer regions come first
+	private long[] collapsed = new long[0];
+	private int collapsedCount = 0;
+	// Fenwick tree counting the visible lines
+	private int[] visible = new int[1];
+	// nesting depth of each region, in the order of regions, computed when needed
+	private int[] depths = new int[0];
+	private boolean depthsValid = false;
+
+	public FoldModel(Document doc) {
+		this.doc = doc;
+		doc.addDocumentListener(this);
+	}
+
+	public List<FoldRegion> getRegions() {
+		return Collections.unmodifiableList(regions);
+	}
+
+	public void add(FoldRegion region) {
+		regions.add(region);
+		dirty = true;
+	}
+
+	public void setRegions(Collection<FoldRegion> regions) {
+		this.regions.clear();
+		this.regions.addAll(regions);
+		dirty = true;
+	}
+
+	/**
+	 * Replaces the regions starting on the lines of {@code delta} by its
+	 * regions. A new region starting on the line of a collapsed one it
+	 * replaces stays collapsed.
+	 *
+	 * @return true if a collapsed region was replaced, which lines are
+	 * hidden may have changed
+	 */
+	public boolean apply(FoldDelta delta) {
+		if (delta.isEmpty()) {
+			return false;
+		}
+		// the offsets the replaced lines start at, so a region is looked up
+		// by its start offset instead of asking the root for its line
+		Element root = doc.getDefaultRootElement();
+		Element[] lines = new Element[delta.lines.length];
+		int[] lineStarts = new int[lines.length];
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = root.getElement(Math.min(delta.lines[i], root.getElementCount() - 1));
+			lineStarts[i] = lines[i].getStartOffset();
+		}
+		Set<Integer> collapsedStarts = new HashSet<>();
+		regions.removeIf(region -> {
+			int offset = Math.max(0, Math.min(region.getStartOffset(), doc.getLength()));
+			int i = Arrays.binarySearch(lineStarts, offset);
+			i = i < 0 ? -i - 2 : i;
+			if (i < 0 || offset >= lines[i].getEndOffset()) {
+				return false;
+			}
+			if (region.collapsed) {
+				collapsedStarts.add(delta.lines[i]);
+			}
+			return true;
+		});
+		for (int i = 0; i + 1 < delta.regions.length; i += 2) {
+			int start = delta.regions[i];
+			int end = delta.regions[i + 1];
+			if (start < 0 || end <= start || end >= root.getElementCount()) {
+				continue;
+			}
+			try {
+				Position startPos = doc.createPosition(root.getElement(start).getStartOffset());
+				Position endPos = doc.createPosition(root.getElement(end).getStartOffset());
+				regions.add(new FoldRegion(startPos, endPos, collapsedStarts.contains(start)));
+			} catch (BadLocationException ignored) {
+			}
+		}
+		dirty = true;
+		return !collapsedStarts.isEmpty();
+	}
+
+	public void clear() {
+		regions.clear();
+		dirty = true;
+	}
+
+	public void setCollapsed(FoldRegion region, boolean collapsed) {
+		if (region.collapsed == collapsed) {
+			return;
+		}
+		region.collapsed = collapsed;
+		if (dirty) {
+			return;
+		}
+		int start = getStartLine(region);
+		int end = getEndLine(region);
+		if (end <= start) {
+			return;
+		}
+		long key = collapsedKey(start, end);
+		if (collapsed) {
+			addCollapsed(key);
+		} else {
+			removeCollapsed(key);
+		}
+		refresh(start + 1, end);
+	}
+
+	/**
+	 * Collapses the regions {@code collapsed} accepts and expands the others.
+	 * It is given each region with its nesting depth, 0 for a region no
+	 * other region contains. The index is rebuilt once for all of them.
+	 *
+	 * @return the start line of the first and the end line of the last
+	 * region that changed, or null if none did
+	 */
+	public int[] updateCollapsed(BiPredicate<FoldRegion, Integer> collapsed) {
+		validate();
+		if (!depthsValid) {
+			computeDepths();
+			depthsValid = true;
+		}
+		int from = Integer.MAX_VALUE;
+		int to = -1;
+		for (int i = 0; i < regions.size(); i++) {
+			FoldRegion region = regions.get(i);
+			boolean value = collapsed.test(region, depths[i]);
+			if (region.collapsed != value) {
+				region.collapsed = value;
+				from = Math.min(from, getStartLine(region));
+				to = Math.max(to, getEndLine(region));
+			}
+		}
+		if (to < 0) {
+			return null;
+		}
+		dirty = true;
+		return new int[]{from, to};
+	}
+
+	/**
+	 * @return the start lines of the collapsed regions, ascending and
+	 * without duplicates
+	 */
+	public int[] getCollapsedLines() {
+		validate();
+		int[] lines = new int[collapsedCount];
+		int count = 0;
+		for (int i = 0; i < collapsedCount; i++) {
+			int start = (int) (collapsed[i] >>> 32);
+			if (count == 0 || lines[count - 1] != start) {
+				lines[count++] = start;
+			}
+		}
+		return Arrays.copyOf(lines, count);
+	}
+
+	/**
+	 * @return the first region starting on {@code line}, or null
+	 */
+	public FoldRegion getRegionAt(int line) {
+		validate();
+		return line >= 0 && line < lineCount ? startingAt[line] : null;
+	}
+
+	public boolean isHidden(int line) {
+		return getHidingLine(line) >= 0;
+	}
+
+	/**
+	 * @return the start line of the outermost collapsed region hiding
+	 * {@code line}, or -1 if it is visible
+	 */
+	public int getHidingLine(int line) {
+		validate();
+		return line >= 0 && line < lineCount ? hiddenBy[line] : -1;
+	}
+
+	/**
+	 * @return the end line of the outermost collapsed region starting on
+	 * {@code line}, or -1 if there is none
+	 */
+	public int getCollapsedEndLine(int line) {
+		validate();
+		int at = Arrays.binarySearch(collapsed, 0, collapsedCount, (long) line << 32);
+		at = at < 0 ? -at - 1 : at;
+		if (at < collapsedCount && (int) (collapsed[at] >>> 32) == line) {
+			return Integer.MAX_VALUE - (int) collapsed[at];
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the visual line {@code line} is shown on, the number of visible
+	 * lines before it
+	 */
+	public int getVisualLine(int line) {
+		validate();
+		return countVisible(Math.max(0, Math.min(line, lineCount)));
+	}
+
+	/**
+	 * @return the line shown on visual line {@code visualLine}, or -1 if
+	 * there are not that many visible lines
+	 */
+	public int getLineAtVisualLine(int visualLine) {
+		validate();
+		if (visualLine < 0 || visualLine >= countVisible(lineCount)) {
+			return -1;
+		}
+		int line = 0;
+		int rest = visualLine;
+		for (int step = Integer.highestOneBit(lineCount); step > 0; step >>= 1) {
+			int next = line + step;
+			if (next <= lineCount && visible[next] <= rest) {
+				line = next;
+				rest -= visible[next];
+			}
+		}
+		return line;
+	}
+
+	public int getVisibleLineCount() {
+		validate();
+		return countVisible(lineCount);
+	}
+
+	public int getStartLine(FoldRegion region) {
+		return lineOf(region.getStartOffset());
+	}
+
+	public int getEndLine(FoldRegion region) {
+		return lineOf(region.getEndOffset());
+	}
+
+	private int lineOf(int offset) {
+		return doc.getDefaultRootElement().getElementIndex(Math.max(0, Math.min(offset, doc.getLength())));
+	}
+
+	private void validate() {
+		if (!dirty) {
+			return;
+		}
+		dirty = false;
+		lineCount = doc.getDefaultRootElement().getElementCount();
+		if (startingAt.length < lineCount) {
+			startingAt = new FoldRegion[lineCount];
+			hiddenBy = new int[lineCount];
+			visible = new int[lineCount + 1];
+		} else {
+			Arrays.fill(startingAt, null);
+			Arrays.fill(visible, 0);
+		}
+		Arrays.fill(hiddenBy, -1);
+
+		collapsed = new long[regions.size()];
+		collapsedCount = 0;
+		for (FoldRegion region : regions) {
+			int start = getStartLine(region);
+			if (startingAt[start] == null) {
+				startingAt[start] = region;
+			}
+			int end = getEndLine(region);
+			if (region.collapsed && end > start) {
+				collapsed[collapsedCount++] = collapsedKey(start, end);
+			}
+		}
+		Arrays.sort(collapsed, 0, collapsedCount);
+		markHidden(0, lineCount - 1);
+		depthsValid = false;
+
+		// builds the tree bottom up in linear time
+		for (int i = 1; i <= lineCount; i++) {
+			visible[i] += hiddenBy[i - 1] < 0 ? 1 : 0;
+			int parent = i + (i & -i);
+			if (parent <= lineCount) {
+				visible[parent] += visible[i];
+			}
+		}
+	}
+
+	// sweeps the regions by start line, outer ones first, keeping the end
+	// lines of the regions still open
+	private void computeDepths() {
+		int count = regions.size();
+		long[] keys = new long[count];
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			FoldRegion region = regions.get(i);
+			keys[i] = collapsedKey(getStartLine(region), getEndLine(region));
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+		if (depths.length < count) {
+			depths = new int[count];
+		}
+		int[] open = new int[count];
+		int depth = 0;
+		for (int i : order) {
+			int start = (int) (keys[i] >>> 32);
+			while (depth > 0 && open[depth - 1] <= start) {
+				depth--;
+			}
+			depths[i] = depth;
+			open[depth++] = Integer.MAX_VALUE - (int) keys[i];
+		}
+	}
+
+	/**
+	 * Recomputes which of the lines {@code from} to {@code to} are hidden,
+	 * after a region spanning them was collapsed or expanded.
+	 */
+	private void refresh(int from, int to) {
+		boolean[] wasHidden = new boolean[to - from + 1];
+		for (int line = from; line <= to; line++) {
+			wasHidden[line - from] = hiddenBy[line] >= 0;
+			hiddenBy[line] = -1;
+		}
+		markHidden(from, to);
+		for (int line = from; line <= to; line++) {
+			boolean hidden = hiddenBy[line] >= 0;
+			if (hidden != wasHidden[line - from]) {
+				for (int i = line + 1; i <= lineCount; i += i & -i) {
+					visible[i] += hidden ? -1 : 1;
+				}
+			}
+		}
+	}
+
+	// sets the owner of the lines from..to hidden by a collapsed region
+	private void markHidden(int from, int to) {
+		int coveredTo = -1;
+		for (int i = 0; i < collapsedCount; i++) {
+			int start = (int) (collapsed[i] >>> 32);
+			int end = Integer.MAX_VALUE - (int) collapsed[i];
+			if (start > to) {
+				break;
+			}
+			if (end <= coveredTo) {
+				continue;
+			}
+			int owner = start <= coveredTo ? hiddenBy[start] : start;
+			for (int line = Math.max(Math.max(start, coveredTo) + 1, from); line <= Math.min(end, to); line++) {
+				hiddenBy[line] = owner;
+			}
+			coveredTo = end;
+		}
+	}
+
+	// visible lines among the first count lines
+	private int countVisible(int count) {
+		int sum = 0;
+		for (int i = count; i > 0; i -= i & -i) {
+			sum += visible[i];
+		}
+		return sum;
+	}
+
+	private static long collapsedKey(int start, int end) {
+		return (long) start << 32 | (Integer.MAX_VALUE - end);
+	}
+
+	private void addCollapsed(long key) {
+		int at = Arrays.binarySearch(collapsed, 0, collapsedCount, key);
+		at = at < 0 ? -at - 1 : at;
+		if (collapsedCount == collapsed.length) {
+			collapsed = Arrays.copyOf(collapsed, Math.max(8, collapsedCount * 2));
+		}
+		System.arraycopy(collapsed, at, collapsed, at + 1, collapsedCount - at);
+		collapsed[at] = key;
+		collapsedCount++;
+	}
+
+	private void removeCollapsed(long key) {
+		int at = Arrays.binarySearch(collapsed, 0, collapsedCount, key);
+		if (at >= 0) {
+			System.arraycopy(collapsed, at + 1, collapsed, at, collapsedCount - at - 1);
+			collapsedCount--;
+		}
+	}
+
+	@Override
+	public void insertUpdate(DocumentEvent e) {
+		linesChanged(e);
+	}
+
+	@Override
+	public void removeUpdate(DocumentEvent e) {
+		linesChanged(e);
+	}
+
+	@Override
+	public void changedUpdate(DocumentEvent e) {
+		// attribute only, the lines did not change
+	}
+
+	private void linesChanged(DocumentEvent e) {
+		Element root = doc.getDefaultRootElement();
+		if (e.getChange(root) != null) {
+			dirty = true;
+		}
+	}
+}
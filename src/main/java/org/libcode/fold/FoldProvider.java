@@ -0,0 +1,44 @@
+package org.libcode.fold;
+
+import javax.swing.text.Document;
+
+/**
+ * Computes the fold regions of a document for a language, a pluggable
+ * alternative to the fold trigger pairs.
+ *
+ * A provider keeps what it needs per line and is told which lines changed
+ * with every edit. It then only looks at those lines again and reports the
+ * regions that changed as a {@link FoldDelta}, so keeping the folds up to
+ * date costs about as much as the edit. The regions are given as
+ * (start line, end line) pairs; the start line stays visible and the lines
+ * after it up to the end line are hidden when the region is collapsed.
+ *
+ * A provider serves a single document. It is called on the EDT, with the
+ * document read locked during {@link #update}.
+ *
+ * @author hexaredecimal
+ */
+public interface FoldProvider {
+
+	/**
+	 * {@code removed} lines starting at {@code line} were replaced by
+	 * {@code added} lines with a new text. Typing within a line is one line
+	 * replaced by one. This is called from the document listener and should
+	 * only note which lines to look at.
+	 */
+	void linesChanged(int line, int removed, int added);
+
+	/**
+	 * Looks at the lines changed since the last call. May stop after a
+	 * bounded amount of work and continue in the next call.
+	 *
+	 * @return the change to the regions, or {@link FoldDelta#NONE}
+	 */
+	FoldDelta update(Document doc);
+
+	/**
+	 * @return true while there are changed lines {@link #update} has not
+	 * looked at yet
+	 */
+	boolean isDirty();
+}
@@ -0,0 +1,416 @@
+package org.libcode.fold;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import org.libcode.text.DocumentText;
+
+/**
+ * Where the fold trigger symbols of a document are, kept per line.
+ *
+ * Every line holds the columns at which a start or end symbol of one of
+ * the trigger pairs occurs. All pairs are found in a single scan of the
+ * line, and edits only mark the lines they touch for a re-scan. Matching the
+ * symbols into regions then walks these small arrays instead of the text.
+ *
+ * Every line also keeps how many symbols are still open at its end, as of
+ * the last match. Like {@link TokenFoldProvider}, only the lines from the
+ * last one before a changed line that leaves nothing open to the first one
+ * after it that leaves nothing open, before and after the edit, are matched
+ * again, no region can reach across those.
+ *
+ * Edits bump a version and are cheap. The scanning and matching is done by
+ * {@link #match} on a worker thread, the scanning in bounded steps under the
+ * document read lock, and the result carries the version it was computed
+ * for so a stale one can be dropped.
+ *
+ * Pairs of single chars nest like brackets, every matched pair is a
+ * region. For longer symbols only the outermost match is a region. Symbols
+ * cannot span lines.
+ *
+ * @author hexaredecimal
+ */
+public class FoldTriggerIndex implements DocumentListener {
+
+	private static final int[] NO_TRIGGERS = new int[0];
+	private static final int START = 1;
+	private static final int END = 2;
+	private static final int MAX_LINES_PER_LOCK = 2000;
+
+	/**
+	 * Fold regions matched for one version of the document.
+	 */
+	public static final class Regions {
+		/** the version of the index the regions were matched for */
+		public final long version;
+		/** stays the same as long as the matched regions do */
+		public final int changeCount;
+		/** (start line, end line) pairs, by start line and outermost first */
+		public final int[] lines;
+
+		Regions(long version, int changeCount, int[] lines) {
+			this.version = version;
+			this.changeCount = changeCount;
+			this.lines = lines;
+		}
+	}
+
+	private final Document doc;
+	private final AtomicLong version = new AtomicLong();
+	// the rest is shared with the worker, guarded by this
+	private final DocumentText text;
+	private String[] starts = new String[0];
+	private String[] ends = new String[0];
+	// per line packed (column, pair << 2 | START/END flags) tuples
+	private int[][] lines = new int[64][];
+	private final BitSet dirty = new BitSet();
+	// symbols still open at the end of each line, as of the last match
+	private int[] depths = new int[64];
+	// lines whose triggers changed since the last match
+	private final BitSet changed = new BitSet();
+	private int size = 0;
+	private int changeCount = 0;
+	// the matched regions as start line << 32 | (MAX_VALUE - end line), sorted
+	private long[] regions = new long[0];
+	private int[] regionLines = new int[0];
+	private int regionLinesChangeCount = 0;
+	// the regions of the window matched last, sorted
+	private long[] matched = new long[16];
+	private int matchedCount = 0;
+	// per pair matching state of the window
+	private int[][] stacks = new int[0][];
+	private int[] pairDepths = new int[0];
+	private int[] openLines = new int[0];
+	private int[] nextLines = new int[0];
+	private int[] nextColumns = new int[0];
+
+	public FoldTriggerIndex(Document doc) {
+		this.doc = doc;
+		this.text = new DocumentText(doc, 0, 0);
+		insertLines(0, doc.getDefaultRootElement().getElementCount());
+		doc.addDocumentListener(this);
+	}
+
+	/**
+	 * Replaces the trigger pairs, start symbol to end symbol. The whole
+	 * document is scanned again by the next {@link #match}.
+	 */
+	public synchronized void setPairs(Map<String, String> pairs) {
+		version.incrementAndGet();
+		starts = pairs.keySet().toArray(new String[0]);
+		ends = pairs.values().toArray(new String[0]);
+		stacks = new int[starts.length][8];
+		pairDepths = new int[starts.length];
+		openLines = new int[starts.length];
+		nextLines = new int[starts.length];
+		nextColumns = new int[starts.length];
+		Arrays.fill(lines, 0, size, NO_TRIGGERS);
+		dirty.set(0, size);
+		changed.set(0, size);
+		changeCount++;
+	}
+
+	/**
+	 * @return the current version, it goes up with every edit
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * Scans the lines changed since the last call and matches the trigger
+	 * symbols around them into regions spanning more than one line. Meant to
+	 * run off the EDT; the document is only read locked for a bounded number
+	 * of lines at a time.
+	 */
+	public Regions match() {
+		while (true) {
+			if (doc instanceof AbstractDocument ad) {
+				ad.render(this::scanDirtyLines);
+			} else {
+				scanDirtyLines();
+			}
+			synchronized (this) {
+				if (dirty.nextSetBit(0) >= 0 && dirty.nextSetBit(0) < size) {
+					continue;
+				}
+				matchChangedLines();
+				if (regionLinesChangeCount != changeCount) {
+					regionLinesChangeCount = changeCount;
+					regionLines = new int[regions.length * 2];
+					for (int i = 0; i < regions.length; i++) {
+						regionLines[i * 2] = (int) (regions[i] >>> 32);
+						regionLines[i * 2 + 1] = Integer.MAX_VALUE - (int) regions[i];
+					}
+				}
+				return new Regions(version.get(), changeCount, regionLines);
+			}
+		}
+	}
+
+	private synchronized void scanDirtyLines() {
+		Element root = doc.getDefaultRootElement();
+		int count = Math.min(size, root.getElementCount());
+		int scanned = 0;
+		for (int line = dirty.nextSetBit(0); line >= 0 && line < count && scanned < MAX_LINES_PER_LOCK;
+						line = dirty.nextSetBit(line + 1)) {
+			int[] triggers = scan(root.getElement(line));
+			if (!Arrays.equals(triggers, lines[line])) {
+				lines[line] = triggers;
+				changed.set(line);
+			}
+			dirty.clear(line);
+			scanned++;
+		}
+	}
+
+	private void matchChangedLines() {
+		changed.clear(size, Math.max(size, changed.length()));
+		for (int line = changed.nextSetBit(0); line >= 0; line = changed.nextSetBit(line + 1)) {
+			int windowStart = line;
+			while (windowStart > 0 && depths[windowStart - 1] != 0) {
+				windowStart--;
+			}
+			int windowEnd = match(windowStart, line);
+			int from = lowerBound(regions, windowStart);
+			int to = lowerBound(regions, windowEnd + 1);
+			if (!Arrays.equals(regions, from, to, matched, 0, matchedCount)) {
+				replaceRegions(from, to);
+				changeCount++;
+			}
+			line = windowEnd;
+		}
+		changed.clear();
+	}
+
+	/**
+	 * Matches the symbols from {@code windowStart}, where none are open,
+	 * until a line at or after {@code line} that is not changed leaves none
+	 * open, now and before the edit. The depths of the window are updated.
+	 *
+	 * @return the last line of the window
+	 */
+	private int match(int windowStart, int line) {
+		Arrays.fill(pairDepths, 0);
+		Arrays.fill(nextLines, -1);
+		matchedCount = 0;
+		int open = 0;
+		int windowEnd = windowStart;
+		for (;; windowEnd++) {
+			int[] triggers = lines[windowEnd];
+			for (int t = 0; t < triggers.length; t += 2) {
+				int column = triggers[t];
+				int p = triggers[t + 1] >>> 2;
+				int flags = triggers[t + 1] & (START | END);
+				int startLine = -1;
+				if (starts[p].length() == 1 && ends[p].length() == 1) {
+					if ((flags & START) != 0) {
+						stacks[p] = push(stacks[p], pairDepths[p]++, windowEnd);
+						open++;
+					} else if (pairDepths[p] > 0) {
+						startLine = stacks[p][--pairDepths[p]];
+						open--;
+					}
+				} else if (windowEnd > nextLines[p] || column >= nextColumns[p]) {
+					// a matched symbol is skipped as a whole, like a scan would
+					if (pairDepths[p] > 0 && (flags & END) != 0) {
+						open--;
+						if (--pairDepths[p] == 0) {
+							startLine = openLines[p];
+							nextLines[p] = windowEnd;
+							nextColumns[p] = column + ends[p].length();
+						}
+					} else if ((flags & START) != 0) {
+						open++;
+						if (pairDepths[p]++ == 0) {
+							openLines[p] = windowEnd;
+						}
+						nextLines[p] = windowEnd;
+						nextColumns[p] = column + starts[p].length();
+					}
+				}
+				if (startLine >= 0 && windowEnd > startLine) {
+					if (matchedCount == matched.length) {
+						matched = Arrays.copyOf(matched, matchedCount * 2);
+					}
+					matched[matchedCount++] = key(startLine, windowEnd);
+				}
+			}
+			int oldDepth = depths[windowEnd];
+			depths[windowEnd] = open;
+			if (windowEnd == size - 1
+							|| (windowEnd >= line && open == 0 && oldDepth == 0 && !changed.get(windowEnd))) {
+				break;
+			}
+		}
+		Arrays.sort(matched, 0, matchedCount);
+		return windowEnd;
+	}
+
+	// replaces regions[from, to) with the regions of the window
+	private void replaceRegions(int from, int to) {
+		if (matchedCount != to - from) {
+			long[] resized = new long[regions.length - (to - from) + matchedCount];
+			System.arraycopy(regions, 0, resized, 0, from);
+			System.arraycopy(regions, to, resized, from + matchedCount, regions.length - to);
+			regions = resized;
+		}
+		System.arraycopy(matched, 0, regions, from, matchedCount);
+	}
+
+	// index of the first region starting at or after line
+	private static int lowerBound(long[] regions, int line) {
+		long key = (long) line << 32;
+		int lo = 0;
+		int hi = regions.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (regions[mid] < key) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private static long key(int start, int end) {
+		return (long) start << 32 | (Integer.MAX_VALUE - end);
+	}
+
+	private static int[] push(int[] array, int index, int value) {
+		if (index == array.length) {
+			array = Arrays.copyOf(array, index * 2);
+		}
+		array[index] = value;
+		return array;
+	}
+
+	@Override
+	public void insertUpdate(DocumentEvent e) {
+		linesChanged(e);
+	}
+
+	@Override
+	public void removeUpdate(DocumentEvent e) {
+		linesChanged(e);
+	}
+
+	@Override
+	public void changedUpdate(DocumentEvent e) {
+		// attribute only, the text did not change
+	}
+
+	private synchronized void linesChanged(DocumentEvent e) {
+		version.incrementAndGet();
+		Element root = doc.getDefaultRootElement();
+		DocumentEvent.ElementChange change = e.getChange(root);
+		if (change != null) {
+			changeCount++;
+			int index = change.getIndex();
+			int removed = change.getChildrenRemoved().length;
+			int added = change.getChildrenAdded().length;
+			System.arraycopy(lines, index + removed, lines, index, size - index - removed);
+			System.arraycopy(depths, index + removed, depths, index, size - index - removed);
+			splice(dirty, index, removed, 0, size);
+			splice(changed, index, removed, 0, size);
+			size -= removed;
+			Arrays.fill(lines, size, size + removed, null);
+			insertLines(index, added);
+			// the line after was matched on from the state of a line now gone
+			if (added == 0 && index < size) {
+				changed.set(index);
+			}
+			moveRegions(index, removed, added);
+		}
+		// A styled document changes the first or last line of a multi-line
+		// edit in place, those are not part of the element change
+		dirty.set(root.getElementIndex(e.getOffset()));
+		dirty.set(root.getElementIndex(e.getType() == DocumentEvent.EventType.INSERT ? e.getOffset() + e.getLength() : e.getOffset()));
+	}
+
+	// moves the regions along, the ones on removed lines end up on the first
+	// changed line like their positions do
+	private void moveRegions(int line, int removed, int added) {
+		if (added == removed) {
+			return;
+		}
+		for (int i = 0; i < regions.length; i++) {
+			int start = moveLine((int) (regions[i] >>> 32), line, removed, added);
+			int end = moveLine(Integer.MAX_VALUE - (int) regions[i], line, removed, added);
+			regions[i] = key(start, end);
+		}
+		// the order only changes among the regions now starting on the line
+		int from = lowerBound(regions, line);
+		Arrays.sort(regions, from, lowerBound(regions, line + 1));
+	}
+
+	private static int moveLine(int l, int line, int removed, int added) {
+		if (l < line) {
+			return l;
+		}
+		return l >= line + removed ? l + added - removed : line;
+	}
+
+	// new lines start out without triggers, dirty and changed
+	private void insertLines(int index, int count) {
+		if (size + count > lines.length) {
+			lines = Arrays.copyOf(lines, Math.max(size + count, lines.length * 2));
+			depths = Arrays.copyOf(depths, lines.length);
+		}
+		System.arraycopy(lines, index, lines, index + count, size - index);
+		System.arraycopy(depths, index, depths, index + count, size - index);
+		splice(dirty, index, 0, count, size);
+		splice(changed, index, 0, count, size);
+		Arrays.fill(lines, index, index + count, NO_TRIGGERS);
+		Arrays.fill(depths, index, index + count, 0);
+		dirty.set(index, index + count);
+		changed.set(index, index + count);
+		size += count;
+	}
+
+	// moves the bits after the replaced lines along
+	private static void splice(BitSet bits, int line, int removed, int added, int size) {
+		BitSet tail = bits.get(line + removed, Math.max(line + removed, size));
+		bits.clear(line, Math.max(line, size));
+		for (int i = tail.nextSetBit(0); i >= 0; i = tail.nextSetBit(i + 1)) {
+			bits.set(line + added + i);
+		}
+	}
+
+	private int[] scan(Element line) {
+		int start = line.getStartOffset();
+		int end = Math.min(line.getEndOffset(), doc.getLength());
+		if (end <= start || starts.length == 0) {
+			return NO_TRIGGERS;
+		}
+		DocumentText text = this.text.setRange(start, end);
+		int[] triggers = NO_TRIGGERS;
+		int count = 0;
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			for (int p = 0; p < starts.length; p++) {
+				int flags = (matches(text, i, starts[p]) ? START : 0)
+								| (matches(text, i, ends[p]) ? END : 0);
+				if (flags != 0) {
+					if (count + 2 > triggers.length) {
+						triggers = Arrays.copyOf(triggers, Math.max(8, triggers.length * 2));
+					}
+					triggers[count++] = i;
+					triggers[count++] = p << 2 | flags;
+				}
+			}
+		}
+		return count == triggers.length ? triggers : Arrays.copyOf(triggers, count);
+	}
+
+	private static boolean matches(DocumentText text, int at, String symbol) {
+		return !symbol.isEmpty() && text.startsWith(symbol, at);
+	}
+}
@@ -7,6 +7,7 @@ import javax.swing.text.StyledEditorKit;
 import javax.swing.text.View;
 import javax.swing.text.ViewFactory;
 import org.libcode.fold.view.FoldingParagraphView;
+import org.libcode.highlight.view.TokenLabelView;
 import org.libcode.ui.CodePane;
 
 /**
@@ -25,6 +26,9 @@ public class FoldingEditorKit extends StyledEditorKit {
         if (AbstractDocument.ParagraphElementName.equals(kind)) {
           return new FoldingParagraphView(elem, pane);
         }
+        if (AbstractDocument.ContentElementName.equals(kind)) {
+          return new TokenLabelView(elem, pane);
+        }
         return delegate.create(elem);
       }
     };
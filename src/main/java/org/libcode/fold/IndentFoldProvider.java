@@ -0,0 +1,185 @@
+package org.libcode.fold;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import org.libcode.text.DocumentText;
+
+/**
+ * Folds the blocks of a whitespace sensitive language by their
+ * indentation.
+ *
+ * A line starts a region when the next non blank line is indented deeper.
+ * The region ends at the last non blank line before the indentation comes
+ * back to the level of its start line, so trailing blank lines stay
+ * visible.
+ *
+ * Only the indentation of every line is kept. After an edit the regions
+ * are recomputed from the top level line before the changed lines to the
+ * top level line after them, no region can reach across those. Reported
+ * are only the regions that changed and the ones enclosing the edit.
+ *
+ * @author hexaredecimal
+ */
+public class IndentFoldProvider implements FoldProvider {
+
+	private static final int BLANK = -1;
+	private static final int MAX_LINES_PER_UPDATE = 5000;
+
+	private final int tabSize;
+	// indentation width of each line, or BLANK
+	private int[] indents = new int[64];
+	// lines from the start to the end of the region starting on each line, or 0
+	private int[] spans = new int[64];
+	private final BitSet dirty = new BitSet();
+	private int size = 0;
+
+	public IndentFoldProvider() {
+		this(4);
+	}
+
+	public IndentFoldProvider(int tabSize) {
+		this.tabSize = Math.max(1, tabSize);
+	}
+
+	@Override
+	public void linesChanged(int line, int removed, int added) {
+		int newSize = size + added - removed;
+		if (newSize > indents.length) {
+			indents = Arrays.copyOf(indents, Math.max(newSize, indents.length * 2));
+			spans = Arrays.copyOf(spans, indents.length);
+		}
+		System.arraycopy(indents, line + removed, indents, line + added, size - line - removed);
+		System.arraycopy(spans, line + removed, spans, line + added, size - line - removed);
+		BitSet tail = dirty.get(line + removed, Math.max(line + removed, size));
+		dirty.clear(line, Math.max(line, size));
+		for (int i = tail.nextSetBit(0); i >= 0; i = tail.nextSetBit(i + 1)) {
+			dirty.set(line + added + i);
+		}
+		// new lines count as top level until they are scanned
+		Arrays.fill(indents, line, line + added, 0);
+		Arrays.fill(spans, line, line + added, 0);
+		dirty.set(line, line + added);
+		size = newSize;
+	}
+
+	@Override
+	public boolean isDirty() {
+		return !dirty.isEmpty();
+	}
+
+	@Override
+	public FoldDelta update(Document doc) {
+		Element root = doc.getDefaultRootElement();
+		int count = Math.min(size, root.getElementCount());
+		int first = dirty.nextSetBit(0);
+		if (first < 0 || first >= count) {
+			dirty.clear();
+			return FoldDelta.NONE;
+		}
+		// one run of changed lines at a time
+		DocumentText text = new DocumentText(doc, 0, 0);
+		int last = first;
+		while (last < count && dirty.get(last) && last - first < MAX_LINES_PER_UPDATE) {
+			Element lineEl = root.getElement(last);
+			text.setRange(lineEl.getStartOffset(), Math.min(lineEl.getEndOffset(), doc.getLength()));
+			indents[last] = indentOf(text);
+			dirty.clear(last);
+			last++;
+		}
+		last--;
+		if (dirty.nextSetBit(0) >= count) {
+			dirty.clear();
+		}
+
+		int windowStart = first - 1;
+		while (windowStart > 0 && indents[windowStart] != 0) {
+			windowStart--;
+		}
+		windowStart = Math.max(0, windowStart);
+		int windowEnd = last + 1;
+		while (windowEnd < count && indents[windowEnd] != 0) {
+			windowEnd++;
+		}
+
+		// Besides the changed lines and the regions that changed, the ones
+		// reaching into the changed lines are replaced: their end position
+		// may have been moved by the edit, and the span kept for them counts
+		// lines that are gone
+		int[] found = match(windowStart, windowEnd);
+		BitSet replaced = new BitSet();
+		replaced.set(first, last + 1);
+		for (int i = 0; i < found.length; i++) {
+			int start = windowStart + i;
+			if (found[i] != spans[start] || reaches(start, found[i], first, last)
+							|| reaches(start, spans[start], first, last)) {
+				replaced.set(start);
+			}
+		}
+		System.arraycopy(found, 0, spans, windowStart, found.length);
+
+		int[] lines = new int[replaced.cardinality()];
+		int[] regions = new int[16];
+		int n = 0;
+		int l = 0;
+		for (int line = replaced.nextSetBit(0); line >= 0; line = replaced.nextSetBit(line + 1)) {
+			lines[l++] = line;
+			if (spans[line] > 0) {
+				if (n + 2 > regions.length) {
+					regions = Arrays.copyOf(regions, regions.length * 2);
+				}
+				regions[n++] = line;
+				regions[n++] = line + spans[line];
+			}
+		}
+		return new FoldDelta(lines, Arrays.copyOf(regions, n));
+	}
+
+	private static boolean reaches(int start, int span, int first, int last) {
+		return span > 0 && start <= last && start + span >= first;
+	}
+
+	// spans of the regions starting in the window, the line after it is top level
+	private int[] match(int windowStart, int windowEnd) {
+		int[] found = new int[windowEnd - windowStart];
+		int[] open = new int[16];
+		int depth = 0;
+		int lastNonBlank = -1;
+		for (int line = windowStart; line <= windowEnd; line++) {
+			int indent = line < windowEnd ? indents[line] : 0;
+			if (indent == BLANK) {
+				continue;
+			}
+			while (depth > 0 && indents[open[depth - 1]] >= indent) {
+				int start = open[--depth];
+				if (lastNonBlank > start) {
+					found[start - windowStart] = lastNonBlank - start;
+				}
+			}
+			if (line < windowEnd) {
+				if (depth == open.length) {
+					open = Arrays.copyOf(open, depth * 2);
+				}
+				open[depth++] = line;
+				lastNonBlank = line;
+			}
+		}
+		return found;
+	}
+
+	private int indentOf(DocumentText line) {
+		int width = 0;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == ' ') {
+				width++;
+			} else if (c == '\t') {
+				width += tabSize - width % tabSize;
+			} else if (c != '\r' && c != '\n') {
+				return width;
+			}
+		}
+		return BLANK;
+	}
+}
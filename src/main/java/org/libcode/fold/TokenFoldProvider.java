@@ -0,0 +1,319 @@
+package org.libcode.fold;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import org.libcode.highlight.Lexer;
+import org.libcode.highlight.TokenType;
+import org.libcode.text.DocumentText;
+
+/**
+ * Folds between matching brackets, using a {@link Lexer} to leave out the
+ * brackets inside comments and strings.
+ *
+ * Every line keeps the state the lexer ended it in, how many brackets it
+ * closes and opens that are not matched on the line itself, and how many
+ * are open at its end. An edit tokenizes the changed lines again, and the
+ * lines after them only as long as the state they end in changes, like the
+ * highlighter does. Matching then walks the counts per line instead of the
+ * text, from the last line before the changed ones that leaves no bracket
+ * open to the first one after them that leaves none open, before and after
+ * the edit. No region can reach across those, so only the regions in
+ * between are matched again, and only the ones that differ are reported.
+ *
+ * @author hexaredecimal
+ */
+public class TokenFoldProvider implements FoldProvider {
+
+	private static final int MAX_LINES_PER_UPDATE = 2000;
+
+	private final Lexer lexer;
+	private final char open;
+	private final char close;
+	private int[] endStates = new int[64];
+	// brackets closed and opened by each line that do not match on the line
+	private int[] closes = new int[64];
+	private int[] opens = new int[64];
+	// brackets still open at the end of each line, as of the last match
+	private int[] depths = new int[64];
+	private final BitSet dirty = new BitSet();
+	private int size = 0;
+	// the last matched regions as start line << 32 | (MAX_VALUE - end line), sorted
+	private long[] regions = new long[0];
+	// lines changed since the regions were last reported
+	private final BitSet changed = new BitSet();
+	// the regions of the window matched last, sorted
+	private long[] matched = new long[16];
+	private int matchedCount = 0;
+	private int[] stack = new int[16];
+	// comment and string tokens of the line being scanned, (start, end) pairs
+	private int[] skipped = new int[16];
+	private int skippedCount = 0;
+
+	public TokenFoldProvider(Lexer lexer) {
+		this(lexer, '{', '}');
+	}
+
+	public TokenFoldProvider(Lexer lexer, char open, char close) {
+		this.lexer = lexer;
+		this.open = open;
+		this.close = close;
+	}
+
+	@Override
+	public void linesChanged(int line, int removed, int added) {
+		int newSize = size + added - removed;
+		if (newSize > endStates.length) {
+			int length = Math.max(newSize, endStates.length * 2);
+			endStates = Arrays.copyOf(endStates, length);
+			closes = Arrays.copyOf(closes, length);
+			opens = Arrays.copyOf(opens, length);
+			depths = Arrays.copyOf(depths, length);
+		}
+		System.arraycopy(endStates, line + removed, endStates, line + added, size - line - removed);
+		System.arraycopy(closes, line + removed, closes, line + added, size - line - removed);
+		System.arraycopy(opens, line + removed, opens, line + added, size - line - removed);
+		System.arraycopy(depths, line + removed, depths, line + added, size - line - removed);
+		splice(dirty, line, removed, added, size);
+		splice(changed, line, removed, added, size);
+		Arrays.fill(endStates, line, line + added, lexer.getInitialState());
+		Arrays.fill(closes, line, line + added, 0);
+		Arrays.fill(opens, line, line + added, 0);
+		Arrays.fill(depths, line, line + added, 0);
+		dirty.set(line, line + added);
+		changed.set(line, line + added);
+		size = newSize;
+		// the line after was tokenized starting in the state of a line now gone
+		if (line + added < size && removed > 0) {
+			dirty.set(line + added);
+		}
+
+		// move the regions along, the ones on removed lines end up on the
+		// first changed line like their positions do
+		if (added != removed) {
+			for (int i = 0; i < regions.length; i++) {
+				int start = moveLine((int) (regions[i] >>> 32), line, removed, added);
+				int end = moveLine(Integer.MAX_VALUE - (int) regions[i], line, removed, added);
+				regions[i] = key(start, end);
+			}
+			// the order only changes among the regions now starting on the line
+			int from = lowerBound(regions, line);
+			Arrays.sort(regions, from, lowerBound(regions, line + 1));
+		}
+	}
+
+	private static int moveLine(int l, int line, int removed, int added) {
+		if (l < line) {
+			return l;
+		}
+		return l >= line + removed ? l + added - removed : line;
+	}
+
+	// moves the bits after the replaced lines along
+	private static void splice(BitSet bits, int line, int removed, int added, int size) {
+		BitSet tail = bits.get(line + removed, Math.max(line + removed, size));
+		bits.clear(line, Math.max(line, size));
+		for (int i = tail.nextSetBit(0); i >= 0; i = tail.nextSetBit(i + 1)) {
+			bits.set(line + added + i);
+		}
+	}
+
+	@Override
+	public boolean isDirty() {
+		return !dirty.isEmpty();
+	}
+
+	@Override
+	public FoldDelta update(Document doc) {
+		Element root = doc.getDefaultRootElement();
+		int count = Math.min(size, root.getElementCount());
+		DocumentText text = new DocumentText(doc, 0, 0);
+		int scanned = 0;
+		for (int line = dirty.nextSetBit(0); line >= 0 && line < count && scanned < MAX_LINES_PER_UPDATE;
+						line = dirty.nextSetBit(line + 1)) {
+			Element lineEl = root.getElement(line);
+			text.setRange(lineEl.getStartOffset(), Math.min(lineEl.getEndOffset(), doc.getLength()));
+			int startState = line == 0 ? lexer.getInitialState() : endStates[line - 1];
+			int endState = scanLine(text, line, startState);
+			dirty.clear(line);
+			if (endState != endStates[line]) {
+				endStates[line] = endState;
+				if (line + 1 < count) {
+					// the next line starts in another state
+					dirty.set(line + 1);
+				}
+			}
+			changed.set(line);
+			scanned++;
+		}
+		if (dirty.nextSetBit(0) >= count) {
+			dirty.clear();
+		}
+		changed.clear(count, Math.max(count, changed.length()));
+		if (!dirty.isEmpty() || changed.isEmpty()) {
+			// match once all lines are known
+			return FoldDelta.NONE;
+		}
+
+		BitSet replaced = (BitSet) changed.clone();
+		int[] delta = new int[16];
+		int n = 0;
+		for (int line = changed.nextSetBit(0); line >= 0; line = changed.nextSetBit(line + 1)) {
+			int windowStart = line;
+			while (windowStart > 0 && depths[windowStart - 1] != 0) {
+				windowStart--;
+			}
+			int windowEnd = match(windowStart, line, count);
+			int from = lowerBound(regions, windowStart);
+			int to = lowerBound(regions, windowEnd + 1);
+
+			// Besides the changed lines, the start lines of the regions that are
+			// new or gone, and of the regions ending on a changed line, as their
+			// end position may have been moved by the edit
+			int i = 0;
+			int j = from;
+			while (i < matchedCount || j < to) {
+				long key = i < matchedCount && (j == to || matched[i] <= regions[j]) ? matched[i] : regions[j];
+				boolean both = i < matchedCount && j < to && matched[i] == regions[j];
+				if (!both || changed.get(Integer.MAX_VALUE - (int) key)) {
+					replaced.set((int) (key >>> 32));
+				}
+				if (i < matchedCount && matched[i] == key) {
+					i++;
+				}
+				if (j < to && regions[j] == key) {
+					j++;
+				}
+			}
+			for (int f = 0; f < matchedCount; f++) {
+				int start = (int) (matched[f] >>> 32);
+				if (replaced.get(start)) {
+					if (n + 2 > delta.length) {
+						delta = Arrays.copyOf(delta, delta.length * 2);
+					}
+					delta[n++] = start;
+					delta[n++] = Integer.MAX_VALUE - (int) matched[f];
+				}
+			}
+			replaceRegions(from, to);
+			line = windowEnd;
+		}
+		changed.clear();
+
+		int[] lines = new int[replaced.cardinality()];
+		int l = 0;
+		for (int line = replaced.nextSetBit(0); line >= 0; line = replaced.nextSetBit(line + 1)) {
+			lines[l++] = line;
+		}
+		return new FoldDelta(lines, Arrays.copyOf(delta, n));
+	}
+
+	/**
+	 * Matches the brackets from {@code windowStart}, where none are open,
+	 * until a line at or after {@code line} that is not changed leaves none
+	 * open, now and before the edit. The depths of the window are updated.
+	 *
+	 * @return the last line of the window
+	 */
+	private int match(int windowStart, int line, int count) {
+		int depth = 0;
+		matchedCount = 0;
+		int windowEnd = windowStart;
+		for (;; windowEnd++) {
+			for (int c = 0; c < closes[windowEnd] && depth > 0; c++) {
+				if (matchedCount == matched.length) {
+					matched = Arrays.copyOf(matched, matchedCount * 2);
+				}
+				matched[matchedCount++] = key(stack[--depth], windowEnd);
+			}
+			for (int o = 0; o < opens[windowEnd]; o++) {
+				if (depth == stack.length) {
+					stack = Arrays.copyOf(stack, depth * 2);
+				}
+				stack[depth++] = windowEnd;
+			}
+			int oldDepth = depths[windowEnd];
+			depths[windowEnd] = depth;
+			if (windowEnd == count - 1
+							|| (windowEnd >= line && depth == 0 && oldDepth == 0 && !changed.get(windowEnd))) {
+				break;
+			}
+		}
+		Arrays.sort(matched, 0, matchedCount);
+		return windowEnd;
+	}
+
+	// replaces regions[from, to) with the regions of the window
+	private void replaceRegions(int from, int to) {
+		if (matchedCount != to - from) {
+			long[] resized = new long[regions.length - (to - from) + matchedCount];
+			System.arraycopy(regions, 0, resized, 0, from);
+			System.arraycopy(regions, to, resized, from + matchedCount, regions.length - to);
+			regions = resized;
+		}
+		System.arraycopy(matched, 0, regions, from, matchedCount);
+	}
+
+	// index of the first region starting at or after line
+	private static int lowerBound(long[] regions, int line) {
+		long key = (long) line << 32;
+		int lo = 0;
+		int hi = regions.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (regions[mid] < key) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private int scanLine(DocumentText text, int line, int startState) {
+		skippedCount = 0;
+		int endState = lexer.tokenizeLine(text, startState, this::token);
+		int unmatchedCloses = 0;
+		int unmatchedOpens = 0;
+		int skip = 0;
+		for (int i = 0; i < text.length(); i++) {
+			while (skip < skippedCount && skipped[skip * 2 + 1] <= i) {
+				skip++;
+			}
+			if (skip < skippedCount && skipped[skip * 2] <= i) {
+				i = skipped[skip * 2 + 1] - 1;
+				continue;
+			}
+			char c = text.charAt(i);
+			if (c == open) {
+				unmatchedOpens++;
+			} else if (c == close) {
+				if (unmatchedOpens > 0) {
+					unmatchedOpens--;
+				} else {
+					unmatchedCloses++;
+				}
+			}
+		}
+		closes[line] = unmatchedCloses;
+		opens[line] = unmatchedOpens;
+		return endState;
+	}
+
+	private void token(int start, int length, int tokenType) {
+		if (tokenType != TokenType.COMMENT && tokenType != TokenType.STRING) {
+			return;
+		}
+		if (skippedCount * 2 + 2 > skipped.length) {
+			skipped = Arrays.copyOf(skipped, skipped.length * 2);
+		}
+		skipped[skippedCount * 2] = start;
+		skipped[skippedCount * 2 + 1] = start + length;
+		skippedCount++;
+	}
+
+	private static long key(int start, int end) {
+		return (long) start << 32 | (Integer.MAX_VALUE - end);
+	}
+}
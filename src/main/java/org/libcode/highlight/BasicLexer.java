@@ -0,0 +1,112 @@
+package org.libcode.highlight;
+
+/**
+ * Lexer for the usual comment, string and number syntax of C like languages.
+ *
+ * Block comments may span lines; the line state records whether a line ends
+ * inside one. Strings end at the closing quote or at the end of the line.
+ * Any delimiter can be null to switch that construct off.
+ *
+ * @author hexaredecimal
+ */
+public class BasicLexer implements Lexer {
+
+	private static final int NORMAL = 0;
+	private static final int IN_BLOCK_COMMENT = 1;
+
+	private final String lineComment;
+	private final String blockCommentStart;
+	private final String blockCommentEnd;
+	private final String quotes;
+
+	public BasicLexer(String lineComment, String blockCommentStart, String blockCommentEnd, String quotes) {
+		this.lineComment = lineComment;
+		this.blockCommentStart = blockCommentEnd == null ? null : blockCommentStart;
+		this.blockCommentEnd = blockCommentStart == null ? null : blockCommentEnd;
+		this.quotes = quotes == null ? "" : quotes;
+	}
+
+	public static BasicLexer cStyle() {
+		return new BasicLexer("//", "/*", "*/", "\"'");
+	}
+
+	@Override
+	public int tokenizeLine(CharSequence line, int startState, TokenSink sink) {
+		int len = line.length();
+		int i = 0;
+		if (startState == IN_BLOCK_COMMENT) {
+			int end = indexOf(line, blockCommentEnd, 0);
+			if (end < 0) {
+				sink.token(0, len, TokenType.COMMENT);
+				return IN_BLOCK_COMMENT;
+			}
+			i = end + blockCommentEnd.length();
+			sink.token(0, i, TokenType.COMMENT);
+		}
+
+		while (i < len) {
+			char c = line.charAt(i);
+			if (startsWith(line, i, lineComment)) {
+				sink.token(i, len - i, TokenType.COMMENT);
+				return NORMAL;
+			} else if (startsWith(line, i, blockCommentStart)) {
+				int end = indexOf(line, blockCommentEnd, i + blockCommentStart.length());
+				if (end < 0) {
+					sink.token(i, len - i, TokenType.COMMENT);
+					return IN_BLOCK_COMMENT;
+				}
+				int stop = end + blockCommentEnd.length();
+				sink.token(i, stop - i, TokenType.COMMENT);
+				i = stop;
+			} else if (quotes.indexOf(c) >= 0) {
+				int j = i + 1;
+				while (j < len && line.charAt(j) != c && line.charAt(j) != '\n') {
+					j += line.charAt(j) == '\\' ? 2 : 1;
+				}
+				j = Math.min(j, len);
+				if (j < len && line.charAt(j) == c) {
+					j++;
+				}
+				sink.token(i, j - i, TokenType.STRING);
+				i = j;
+			} else if (Character.isDigit(c)) {
+				int j = i + 1;
+				while (j < len && (Character.isLetterOrDigit(line.charAt(j)) || line.charAt(j) == '.' || line.charAt(j) == '_')) {
+					j++;
+				}
+				sink.token(i, j - i, TokenType.NUMBER);
+				i = j;
+			} else if (Character.isJavaIdentifierStart(c)) {
+				// skip whole identifiers so digits inside them are not numbers
+				i++;
+				while (i < len && Character.isJavaIdentifierPart(line.charAt(i))) {
+					i++;
+				}
+			} else {
+				i++;
+			}
+		}
+		return NORMAL;
+	}
+
+	private static boolean startsWith(CharSequence text, int pos, String prefix) {
+		if (prefix == null || prefix.isEmpty() || pos + prefix.length() > text.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (text.charAt(pos + i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int indexOf(CharSequence text, String needle, int from) {
+		for (int i = from; i + needle.length() <= text.length(); i++) {
+			if (startsWith(text, i, needle)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
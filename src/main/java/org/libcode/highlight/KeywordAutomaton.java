@@ -0,0 +1,199 @@
+package org.libcode.highlight;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton over every highlighted word of every word group.
+ *
+ * A single left-to-right pass over a line reports the whole-word occurrences
+ * of all keywords, independent of how many keywords are registered. The
+ * automaton is immutable once built.
+ *
+ * @author hexaredecimal
+ */
+public class KeywordAutomaton {
+
+	@FunctionalInterface
+	public interface MatchSink {
+		void match(int start, int length, int group);
+	}
+
+	// goto function: per node a sorted char array and the matching targets
+	private final char[][] edgeChars;
+	private final int[][] edgeTargets;
+	private final int[] fail;
+	// next node on the failure chain that ends a keyword, or -1
+	private final int[] outLink;
+	// group of the keyword ending at a node, or -1
+	private final int[] group;
+	private final int[] depth;
+
+	private KeywordAutomaton(char[][] edgeChars, int[][] edgeTargets, int[] fail, int[] outLink, int[] group, int[] depth) {
+		this.edgeChars = edgeChars;
+		this.edgeTargets = edgeTargets;
+		this.fail = fail;
+		this.outLink = outLink;
+		this.group = group;
+		this.depth = depth;
+	}
+
+	/**
+	 * Compiles the automaton. The index of a list in {@code groups} is the group
+	 * reported for its words; when a word occurs in several groups the last one
+	 * wins.
+	 */
+	public static KeywordAutomaton build(List<? extends List<String>> groups) {
+		List<StringBuilder> chars = new ArrayList<>();
+		List<List<Integer>> targets = new ArrayList<>();
+		List<Integer> groupOf = new ArrayList<>();
+		List<Integer> depthOf = new ArrayList<>();
+		chars.add(new StringBuilder());
+		targets.add(new ArrayList<>());
+		groupOf.add(-1);
+		depthOf.add(0);
+
+		for (int g = 0; g < groups.size(); g++) {
+			for (String word : groups.get(g)) {
+				if (word == null || word.isEmpty()) {
+					continue;
+				}
+				int node = 0;
+				for (int i = 0; i < word.length(); i++) {
+					char c = word.charAt(i);
+					int idx = chars.get(node).indexOf(String.valueOf(c));
+					if (idx >= 0) {
+						node = targets.get(node).get(idx);
+					} else {
+						int next = chars.size();
+						chars.add(new StringBuilder());
+						targets.add(new ArrayList<>());
+						groupOf.add(-1);
+						depthOf.add(i + 1);
+						chars.get(node).append(c);
+						targets.get(node).add(next);
+						node = next;
+					}
+				}
+				groupOf.set(node, g);
+			}
+		}
+
+		int n = chars.size();
+		char[][] edgeChars = new char[n][];
+		int[][] edgeTargets = new int[n][];
+		int[] group = new int[n];
+		int[] depth = new int[n];
+		for (int node = 0; node < n; node++) {
+			String cs = chars.get(node).toString();
+			List<Integer> ts = targets.get(node);
+			Integer[] order = new Integer[cs.length()];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> Character.compare(cs.charAt(a), cs.charAt(b)));
+			edgeChars[node] = new char[order.length];
+			edgeTargets[node] = new int[order.length];
+			for (int i = 0; i < order.length; i++) {
+				edgeChars[node][i] = cs.charAt(order[i]);
+				edgeTargets[node][i] = ts.get(order[i]);
+			}
+			group[node] = groupOf.get(node);
+			depth[node] = depthOf.get(node);
+		}
+
+		int[] fail = new int[n];
+		int[] outLink = new int[n];
+		Arrays.fill(outLink, -1);
+		ArrayDeque<Integer> queue = new ArrayDeque<>();
+		for (int child : edgeTargets[0]) {
+			queue.add(child);
+		}
+		while (!queue.isEmpty()) {
+			int node = queue.poll();
+			for (int i = 0; i < edgeChars[node].length; i++) {
+				char c = edgeChars[node][i];
+				int child = edgeTargets[node][i];
+				int f = fail[node];
+				int next;
+				while ((next = step(edgeChars, edgeTargets, f, c)) < 0 && f != 0) {
+					f = fail[f];
+				}
+				fail[child] = next < 0 ? 0 : next;
+				outLink[child] = group[fail[child]] >= 0 ? fail[child] : outLink[fail[child]];
+				queue.add(child);
+			}
+		}
+		return new KeywordAutomaton(edgeChars, edgeTargets, fail, outLink, group, depth);
+	}
+
+	/**
+	 * Reports the keywords in {@code text[from, to)} that are not directly
+	 * preceded or followed by a letter or digit, in order. The range bounds
+	 * count as word boundaries. Matches do not overlap: where keywords
+	 * overlap the one starting first wins, and of those starting at the same
+	 * position the longest.
+	 */
+	public void scan(CharSequence text, int from, int to, MatchSink sink) {
+		// (start, length, group) of the longest match ending at each position,
+		// kept sorted by start and then by length, longest first
+		int[] found = null;
+		int count = 0;
+		int state = 0;
+		for (int i = from; i < to; i++) {
+			char c = text.charAt(i);
+			int next;
+			while ((next = step(edgeChars, edgeTargets, state, c)) < 0 && state != 0) {
+				state = fail[state];
+			}
+			state = next < 0 ? 0 : next;
+
+			int out = group[state] >= 0 ? state : outLink[state];
+			if (out < 0 || (i + 1 < to && Character.isLetterOrDigit(text.charAt(i + 1)))) {
+				continue;
+			}
+			// the failure chain goes from the longest keyword to the shortest
+			for (; out >= 0; out = outLink[out]) {
+				int start = i - depth[out] + 1;
+				if (start == from || !Character.isLetterOrDigit(text.charAt(start - 1))) {
+					break;
+				}
+			}
+			if (out < 0) {
+				continue;
+			}
+			if (found == null) {
+				found = new int[12];
+			} else if (count * 3 == found.length) {
+				found = Arrays.copyOf(found, found.length * 2);
+			}
+			int start = i - depth[out] + 1;
+			int at = count;
+			// matches come by end position, a longer one can start earlier
+			while (at > 0 && found[(at - 1) * 3] >= start) {
+				at--;
+			}
+			System.arraycopy(found, at * 3, found, at * 3 + 3, (count - at) * 3);
+			found[at * 3] = start;
+			found[at * 3 + 1] = depth[out];
+			found[at * 3 + 2] = group[out];
+			count++;
+		}
+
+		int end = from;
+		for (int m = 0; m < count; m++) {
+			int start = found[m * 3];
+			if (start >= end) {
+				sink.match(start, found[m * 3 + 1], found[m * 3 + 2]);
+				end = start + found[m * 3 + 1];
+			}
+		}
+	}
+
+	private static int step(char[][] edgeChars, int[][] edgeTargets, int node, char c) {
+		int idx = Arrays.binarySearch(edgeChars[node], c);
+		return idx >= 0 ? edgeTargets[node][idx] : -1;
+	}
+}
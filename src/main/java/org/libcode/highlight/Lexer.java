@@ -0,0 +1,43 @@
+package org.libcode.highlight;
+
+/**
+ * Line based lexer in the style of TextMate grammars.
+ *
+ * A line is tokenized given the state the previous line ended in, and the
+ * lexer returns the state at the end of the line. The state is an opaque int
+ * that the highlighter only stores and compares, so a lexer is free to pack a
+ * mode and a nesting depth into it. Because of this the highlighter can
+ * restart at any line and stops re-tokenizing as soon as a line ends in the
+ * same state as before the edit.
+ *
+ * Tokens must be reported in ascending, non-overlapping order. Text that is
+ * not covered by a token is plain and is matched against the word groups of
+ * {@code addHighlightedWords}; a {@link TokenType#DEFAULT} token keeps its
+ * text plain without matching them.
+ *
+ * @author hexaredecimal
+ */
+public interface Lexer {
+
+	@FunctionalInterface
+	interface TokenSink {
+		void token(int start, int length, int tokenType);
+	}
+
+	/**
+	 * A lexer without any tokens, only the word groups get highlighted.
+	 */
+	Lexer PLAIN = (line, startState, sink) -> startState;
+
+	default int getInitialState() {
+		return 0;
+	}
+
+	/**
+	 * @param line the text of the line, including its trailing newline
+	 * @param startState the state the previous line ended in
+	 * @param sink receives the tokens, offsets are relative to the line
+	 * @return the state at the end of the line
+	 */
+	int tokenizeLine(CharSequence line, int startState, TokenSink sink);
+}
@@ -0,0 +1,179 @@
+package org.libcode.highlight;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Per-line end-of-line lexer state and dirty flags, kept in step with the
+ * line elements of a document.
+ *
+ * A line is dirty while its end state has to be recomputed, and unstyled
+ * while the document does not carry its current highlighting. The two only
+ * differ when highlighting is restricted to the viewport. When tokens are
+ * rendered at paint time the store also keeps the token spans of each line.
+ *
+ * @author hexaredecimal
+ */
+public class LineStateStore {
+
+	private int[] states = new int[64];
+	// packed (offset in line, length, token type) triples, or null
+	private int[][] spans = new int[64][];
+	private int size = 0;
+	private final BitSet dirty = new BitSet();
+	private final BitSet unstyled = new BitSet();
+
+	public void reset(int lineCount) {
+		ensureCapacity(lineCount);
+		Arrays.fill(states, 0, lineCount, 0);
+		Arrays.fill(spans, 0, lineCount, null);
+		size = lineCount;
+		dirty.clear();
+		dirty.set(0, lineCount);
+		unstyled.clear();
+		unstyled.set(0, lineCount);
+	}
+
+	public int getLineCount() {
+		return size;
+	}
+
+	public int getState(int line) {
+		return states[line];
+	}
+
+	/**
+	 * Stores the end state of a line.
+	 *
+	 * @return true if the state differs from the one previously stored,
+	 * meaning the following line has to be re-tokenized as well.
+	 */
+	public boolean setState(int line, int state) {
+		if (states[line] == state) {
+			return false;
+		}
+		states[line] = state;
+		return true;
+	}
+
+	/**
+	 * Mirrors an element change of the document root: {@code removed} lines
+	 * starting at {@code index} are replaced by {@code added} new, dirty lines.
+	 */
+	public void replaceLines(int index, int removed, int added) {
+		// The line after the change was tokenized against the end state of the
+		// last removed line, keep it so spill-over can be detected.
+		int carried = removed > 0 ? states[index + removed - 1] : (index > 0 ? states[index - 1] : 0);
+		int delta = added - removed;
+		if (delta != 0) {
+			ensureCapacity(size + delta);
+			System.arraycopy(states, index + removed, states, index + added, size - index - removed);
+			System.arraycopy(spans, index + removed, spans, index + added, size - index - removed);
+			if (delta < 0) {
+				Arrays.fill(spans, size + delta, size, null);
+			}
+		}
+		Arrays.fill(states, index, index + added, carried);
+		Arrays.fill(spans, index, index + added, null);
+
+		shift(dirty, index, removed, added);
+		shift(unstyled, index, removed, added);
+		size += delta;
+	}
+
+	private void shift(BitSet bits, int index, int removed, int added) {
+		BitSet tail = bits.get(index + removed, Math.max(index + removed, size));
+		bits.clear(index, Math.max(index, size));
+		for (int i = tail.nextSetBit(0); i >= 0; i = tail.nextSetBit(i + 1)) {
+			bits.set(index + added + i);
+		}
+		bits.set(index, index + added);
+	}
+
+	public void markDirty(int line) {
+		if (line >= 0 && line < size) {
+			dirty.set(line);
+		}
+	}
+
+	public void markDirty(int fromLine, int toLine) {
+		fromLine = Math.max(0, fromLine);
+		toLine = Math.min(size, toLine);
+		if (fromLine < toLine) {
+			dirty.set(fromLine, toLine);
+		}
+	}
+
+	public void markAllDirty() {
+		dirty.set(0, size);
+	}
+
+	public void clearDirty(int line) {
+		dirty.clear(line);
+	}
+
+	public boolean isDirty(int line) {
+		return dirty.get(line);
+	}
+
+	/**
+	 * @return the first dirty line at or after {@code fromLine}, or -1.
+	 */
+	public int nextDirty(int fromLine) {
+		int line = dirty.nextSetBit(Math.max(0, fromLine));
+		return line >= 0 && line < size ? line : -1;
+	}
+
+	public void markUnstyled(int line) {
+		if (line >= 0 && line < size) {
+			unstyled.set(line);
+		}
+	}
+
+	public void markUnstyled(int fromLine, int toLine) {
+		fromLine = Math.max(0, fromLine);
+		toLine = Math.min(size, toLine);
+		if (fromLine < toLine) {
+			unstyled.set(fromLine, toLine);
+		}
+	}
+
+	public void clearUnstyled(int line) {
+		unstyled.clear(line);
+	}
+
+	/**
+	 * @return the first unstyled line at or after {@code fromLine}, or -1.
+	 */
+	public int nextUnstyled(int fromLine) {
+		int line = unstyled.nextSetBit(Math.max(0, fromLine));
+		return line >= 0 && line < size ? line : -1;
+	}
+
+	public int[] getSpans(int line) {
+		return line >= 0 && line < size ? spans[line] : null;
+	}
+
+	public void setSpans(int line, int[] lineSpans) {
+		spans[line] = lineSpans;
+	}
+
+	public void clearSpans(int fromLine, int toLine) {
+		fromLine = Math.max(0, fromLine);
+		toLine = Math.min(size, toLine);
+		if (fromLine < toLine) {
+			Arrays.fill(spans, fromLine, toLine, null);
+		}
+	}
+
+	public int getStyledLineCount() {
+		return size - unstyled.get(0, size).cardinality();
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > states.length) {
+			states = Arrays.copyOf(states, Math.max(capacity, states.length * 2));
+			spans = Arrays.copyOf(spans, states.length);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package org.libcode.highlight;
+
+import java.util.Arrays;
+
+/**
+ * Semantic tokens of an external analyzer, layered over the lexer tokens.
+ *
+ * Tokens arrive the way LSP ships them: a flat int array of
+ * (deltaLine, deltaStartColumn, length, tokenType) tuples, where deltaLine is
+ * relative to the previous token and deltaStartColumn is relative to the
+ * previous token on the same line. A re-analysis can send edits against the
+ * last array instead of a new one. The decoded tokens are kept per line as
+ * (column, length, token type) triples and move along with the lines of the
+ * document; the tokens of an edited line are dropped until the analyzer
+ * reports them again.
+ *
+ * Token types are {@link TokenType} values or types given a style with
+ * {@code setTokenStyle}, the word groups are left to the lexical pass.
+ *
+ * @author hexaredecimal
+ */
+public class SemanticTokens {
+
+	public static final int FIELDS = 4;
+
+	private int[] data = new int[0];
+	// per line (column, length, token type) triples, or null
+	private int[][] lines = new int[64][];
+	private int size = 0;
+
+	public void reset(int lineCount) {
+		ensureCapacity(lineCount);
+		Arrays.fill(lines, null);
+		size = lineCount;
+		data = new int[0];
+	}
+
+	public int getLineCount() {
+		return size;
+	}
+
+	public int[] getTokens(int line) {
+		return line >= 0 && line < size ? lines[line] : null;
+	}
+
+	public int[] getData() {
+		return data;
+	}
+
+	/**
+	 * Replaces all tokens with the delta encoded {@code data}.
+	 *
+	 * @return the lines whose tokens changed, as a sorted array
+	 * @throws IllegalArgumentException if a token type is negative or a word
+	 * group
+	 */
+	public int[] setData(int[] data) {
+		if (data.length % FIELDS != 0) {
+			throw new IllegalArgumentException("Token data must hold " + FIELDS + " ints per token");
+		}
+		checkTypes(data);
+		this.data = data.clone();
+		return decode();
+	}
+
+	/**
+	 * Applies an edit to the last data: {@code deleteCount} ints starting at
+	 * {@code start} are replaced by {@code inserted}, as in an LSP semantic
+	 * tokens delta.
+	 *
+	 * @return the lines whose tokens changed, as a sorted array
+	 * @throws IllegalArgumentException if the edit is out of range or leaves
+	 * a token type that is negative or a word group
+	 */
+	public int[] edit(int start, int deleteCount, int[] inserted) {
+		if (start < 0 || deleteCount < 0 || start + deleteCount > data.length
+						|| (data.length - deleteCount + inserted.length) % FIELDS != 0) {
+			throw new IllegalArgumentException("Invalid token edit at " + start);
+		}
+		int[] edited = new int[data.length - deleteCount + inserted.length];
+		System.arraycopy(data, 0, edited, 0, start);
+		System.arraycopy(inserted, 0, edited, start, inserted.length);
+		System.arraycopy(data, start + deleteCount, edited, start + inserted.length, data.length - start - deleteCount);
+		checkTypes(edited);
+		data = edited;
+		return decode();
+	}
+
+	private static void checkTypes(int[] data) {
+		for (int i = FIELDS - 1; i < data.length; i += FIELDS) {
+			if (data[i] < 0 || data[i] >= TokenType.WORD_GROUP) {
+				throw new IllegalArgumentException("Invalid token type " + data[i] + " at " + i);
+			}
+		}
+	}
+
+	/**
+	 * Decodes the data and keeps only the lines that actually changed, so a
+	 * delta only restyles the lines it touches.
+	 */
+	private int[] decode() {
+		int[][] decoded = new int[size][];
+		int[] counts = new int[size];
+		int line = 0;
+		int column = 0;
+		for (int i = 0; i < data.length; i += FIELDS) {
+			if (data[i] > 0) {
+				line += data[i];
+				column = data[i + 1];
+			} else {
+				column += data[i + 1];
+			}
+			if (line >= size) {
+				break;
+			}
+			if (data[i + 2] <= 0) {
+				continue;
+			}
+			int[] tokens = decoded[line];
+			if (tokens == null) {
+				tokens = decoded[line] = new int[3 * 4];
+			} else if ((counts[line] + 1) * 3 > tokens.length) {
+				tokens = decoded[line] = Arrays.copyOf(tokens, tokens.length * 2);
+			}
+			int t = counts[line]++ * 3;
+			tokens[t] = column;
+			tokens[t + 1] = data[i + 2];
+			tokens[t + 2] = data[i + 3];
+		}
+
+		int[] changed = new int[8];
+		int changedCount = 0;
+		for (int l = 0; l < size; l++) {
+			int[] tokens = decoded[l] == null ? null : Arrays.copyOf(decoded[l], counts[l] * 3);
+			if (!Arrays.equals(tokens, lines[l])) {
+				lines[l] = tokens;
+				if (changedCount == changed.length) {
+					changed = Arrays.copyOf(changed, changed.length * 2);
+				}
+				changed[changedCount++] = l;
+			}
+		}
+		return Arrays.copyOf(changed, changedCount);
+	}
+
+	/**
+	 * Mirrors an element change of the document root, the new lines carry
+	 * no tokens.
+	 */
+	public void replaceLines(int index, int removed, int added) {
+		int delta = added - removed;
+		if (delta != 0) {
+			ensureCapacity(size + delta);
+			System.arraycopy(lines, index + removed, lines, index + added, size - index - removed);
+			if (delta < 0) {
+				Arrays.fill(lines, size + delta, size, null);
+			}
+		}
+		Arrays.fill(lines, index, index + added, null);
+		size += delta;
+	}
+
+	/**
+	 * @return true if the line had tokens
+	 */
+	public boolean clearLine(int line) {
+		if (line < 0 || line >= size || lines[line] == null) {
+			return false;
+		}
+		lines[line] = null;
+		return true;
+	}
+
+	/**
+	 * Drops all tokens.
+	 *
+	 * @return the lines that had tokens, as a sorted array
+	 */
+	public int[] clear() {
+		data = new int[0];
+		return decode();
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > lines.length) {
+			lines = Arrays.copyOf(lines, Math.max(capacity, lines.length * 2));
+		}
+	}
+}
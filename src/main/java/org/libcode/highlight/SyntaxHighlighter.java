@@ -0,0 +1,744 @@
+package org.libcode.highlight;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.Style;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyleContext;
+import javax.swing.text.StyledDocument;
+import org.libcode.text.DocumentText;
+
+/**
+ * Incremental syntax highlighter driven by document events.
+ *
+ * Inserts and removals mark the touched lines dirty and bump the document
+ * version. Dirty lines are tokenized by the {@link Lexer} on a virtual thread
+ * under the document read lock; tokenizing spills over into the following
+ * lines only while a line ends in a different lexer state than it did before,
+ * so the cost of a keystroke follows the size of the edit and not the size of
+ * the document. Plain text between lexer tokens is matched against the word
+ * groups of the highlight table. Tokenized lines go through a
+ * {@link TokenCache}, so repeated lines are only tokenized once.
+ *
+ * The resulting style runs are applied on the EDT in bounded batches, one
+ * batch per frame, and are thrown away as soon as a newer edit arrives; the
+ * lines they covered are still dirty and get picked up by the next pass.
+ * Attribute changes are ignored, so caret moves and our own restyling never
+ * trigger a pass.
+ *
+ * In viewport mode only the visible lines plus a margin are styled. Dirty
+ * lines above that window are tokenized for their end state alone, lines
+ * below it are left dirty until they scroll into view, and once more than
+ * the line budget carries styles everything outside the window is reset.
+ *
+ * Semantic tokens of an external analyzer are laid over the lexer tokens of
+ * a line while it is tokenized, see {@link SemanticTokens}.
+ *
+ * In paint-time mode the document is never restyled. Token spans are kept
+ * per line in the {@link LineStateStore} and the token views of the editor
+ * kit pick their colors while painting.
+ *
+ * @author hexaredecimal
+ */
+public class SyntaxHighlighter implements DocumentListener {
+
+	private static final int MAX_LINES_PER_PASS = 500;
+	private static final int MAX_STATE_LINES_PER_PASS = 20000;
+	private static final int LINE_FIELDS = 7;
+	private static final int MAX_RUNS_PER_FRAME = 1000;
+	private static final int FRAME_MILLIS = 16;
+
+	private final JTextComponent component;
+	private final StyledDocument doc;
+	private final Map<List<String>, Style> highlightTable;
+	// shared with the worker, guarded by its own monitor
+	private final LineStateStore lines = new LineStateStore();
+	private final SemanticTokens semanticTokens = new SemanticTokens();
+	private final AtomicLong version = new AtomicLong();
+	private final Timer applyTimer;
+
+	private boolean requestPending = false;
+	private boolean passRunning = false;
+	private KeywordAutomaton automaton;
+	private Style[] groupStyles;
+	private Style[] tokenStyles = new Style[16];
+	private Lexer lexer = Lexer.PLAIN;
+	private TokenCache tokenCache = new TokenCache();
+	private HighlightBatch pending;
+
+	private boolean viewportMode = false;
+	private int viewportMargin = 100;
+	private int maxStyledLines = 2000;
+	private int windowStart = 0;
+	private int windowEnd = Integer.MAX_VALUE;
+	private int firstVisibleLine = 0;
+	private int lastVisibleLine = 0;
+	private boolean paintTimeMode = false;
+
+	public SyntaxHighlighter(JTextComponent component, Map<List<String>, Style> highlightTable) {
+		this.component = component;
+		this.doc = (StyledDocument) component.getDocument();
+		this.highlightTable = highlightTable;
+		this.applyTimer = new Timer(FRAME_MILLIS, e -> applyFrame());
+		lines.reset(doc.getDefaultRootElement().getElementCount());
+		semanticTokens.reset(lines.getLineCount());
+		doc.addDocumentListener(this);
+	}
+
+	/**
+	 * Drops the compiled keyword automaton; it is rebuilt on the next pass.
+	 */
+	public void keywordsChanged() {
+		automaton = null;
+		tokenCache.clear();
+		invalidateAll();
+	}
+
+	public void setLexer(Lexer lexer) {
+		this.lexer = lexer == null ? Lexer.PLAIN : lexer;
+		tokenCache.clear();
+		invalidateAll();
+	}
+
+	public Lexer getLexer() {
+		return lexer;
+	}
+
+	/**
+	 * Replaces the line token cache, e.g. with one shared by several editors
+	 * that use the same lexer and word groups.
+	 */
+	public void setTokenCache(TokenCache cache) {
+		this.tokenCache = cache == null ? new TokenCache() : cache;
+		invalidateAll();
+	}
+
+	public TokenCache getTokenCache() {
+		return tokenCache;
+	}
+
+	public void setTokenStyle(int tokenType, Style style) {
+		if (tokenType >= tokenStyles.length) {
+			tokenStyles = Arrays.copyOf(tokenStyles, tokenType + 1);
+		}
+		tokenStyles[tokenType] = style;
+		invalidateAll();
+	}
+
+	/**
+	 * Replaces the semantic tokens with the delta encoded (deltaLine,
+	 * deltaStartColumn, length, tokenType) tuples of {@code data}.
+	 */
+	public void setSemanticTokens(int[] data) {
+		synchronized (lines) {
+			semanticTokensChanged(semanticTokens.setData(data));
+		}
+	}
+
+	/**
+	 * Replaces {@code deleteCount} ints of the last semantic token data at
+	 * {@code start} with {@code data}. Only the lines whose tokens change are
+	 * highlighted again.
+	 */
+	public void editSemanticTokens(int start, int deleteCount, int[] data) {
+		synchronized (lines) {
+			semanticTokensChanged(semanticTokens.edit(start, deleteCount, data));
+		}
+	}
+
+	public void clearSemanticTokens() {
+		synchronized (lines) {
+			semanticTokensChanged(semanticTokens.clear());
+		}
+	}
+
+	private void semanticTokensChanged(int[] changedLines) {
+		if (changedLines.length == 0) {
+			return;
+		}
+		version.incrementAndGet();
+		for (int line : changedLines) {
+			lines.markDirty(line);
+		}
+		scheduleFlush();
+	}
+
+	/**
+	 * Switches between styling the document and rendering token spans at
+	 * paint time. Only the foreground of a token style is used at paint time,
+	 * bold and italic would change the layout.
+	 */
+	public void setPaintTimeMode(boolean enabled) {
+		if (paintTimeMode == enabled) {
+			return;
+		}
+		paintTimeMode = enabled;
+		version.incrementAndGet();
+		synchronized (lines) {
+			lines.clearSpans(0, lines.getLineCount());
+			lines.markAllDirty();
+			lines.markUnstyled(0, lines.getLineCount());
+		}
+		if (enabled) {
+			Style defaultStyle = StyleContext.getDefaultStyleContext().getStyle(StyleContext.DEFAULT_STYLE);
+			doc.setCharacterAttributes(0, doc.getLength(), defaultStyle, true);
+		}
+		component.repaint();
+		scheduleFlush();
+	}
+
+	public boolean isPaintTimeMode() {
+		return paintTimeMode;
+	}
+
+	/**
+	 * @return the token spans of a line as (offset in line, length, token
+	 * type) triples, ascending and not overlapping, or null when the line
+	 * has none. Only kept in paint-time mode.
+	 */
+	public int[] getLineSpans(int line) {
+		return lines.getSpans(line);
+	}
+
+	/**
+	 * @return the foreground of the style for a token type, or null.
+	 */
+	public Color getTokenColor(int tokenType) {
+		Style style;
+		if (tokenType >= TokenType.WORD_GROUP) {
+			int group = tokenType - TokenType.WORD_GROUP;
+			style = groupStyles != null && group < groupStyles.length ? groupStyles[group] : null;
+		} else {
+			style = tokenType > 0 && tokenType < tokenStyles.length ? tokenStyles[tokenType] : null;
+		}
+		if (style == null || !style.isDefined(StyleConstants.Foreground)) {
+			return null;
+		}
+		return StyleConstants.getForeground(style);
+	}
+
+	/**
+	 * Restricts highlighting to the visible lines plus {@code marginLines} on
+	 * either side. Styles outside that window are dropped again as soon as
+	 * more than {@code maxStyledLines} lines carry them.
+	 */
+	public void setViewportMode(boolean enabled, int marginLines, int maxStyledLines) {
+		this.viewportMode = enabled;
+		this.viewportMargin = Math.max(0, marginLines);
+		this.maxStyledLines = Math.max(1, maxStyledLines);
+		updateWindow();
+	}
+
+	public boolean isViewportMode() {
+		return viewportMode;
+	}
+
+	/**
+	 * Tells the highlighter which lines are on screen, called whenever the
+	 * enclosing viewport scrolls or resizes.
+	 */
+	public void setVisibleLines(int firstLine, int lastLine) {
+		this.firstVisibleLine = firstLine;
+		this.lastVisibleLine = lastLine;
+		if (viewportMode) {
+			updateWindow();
+		}
+	}
+
+	private void updateWindow() {
+		if (viewportMode) {
+			windowStart = Math.max(0, firstVisibleLine - viewportMargin);
+			windowEnd = lastVisibleLine + viewportMargin;
+		} else {
+			windowStart = 0;
+			windowEnd = Integer.MAX_VALUE;
+		}
+		evictIfOverBudget();
+		scheduleFlush();
+	}
+
+	/**
+	 * Resets the styles outside the window once too many lines carry them.
+	 * The dropped lines are marked unstyled and get highlighted again when
+	 * they scroll back into view.
+	 */
+	private void evictIfOverBudget() {
+		if (!viewportMode) {
+			return;
+		}
+		Element root = doc.getDefaultRootElement();
+		int lineCount;
+		int start = windowStart;
+		int end = windowEnd + 1;
+		// the monitor is released before touching the document, the worker
+		// takes them in the opposite order
+		synchronized (lines) {
+			lineCount = Math.min(root.getElementCount(), lines.getLineCount());
+			if (lines.getStyledLineCount() <= maxStyledLines) {
+				return;
+			}
+			lines.markUnstyled(0, Math.min(start, lineCount));
+			lines.markUnstyled(end, lineCount);
+			if (paintTimeMode) {
+				lines.clearSpans(0, Math.min(start, lineCount));
+				lines.clearSpans(end, lineCount);
+				return;
+			}
+		}
+		Style defaultStyle = StyleContext.getDefaultStyleContext().getStyle(StyleContext.DEFAULT_STYLE);
+		if (start > 0 && start <= lineCount) {
+			doc.setCharacterAttributes(0, root.getElement(start - 1).getEndOffset(), defaultStyle, true);
+		}
+		if (end < lineCount) {
+			int offset = root.getElement(end).getStartOffset();
+			doc.setCharacterAttributes(offset, doc.getLength() - offset, defaultStyle, true);
+		}
+	}
+
+	/**
+	 * Re-highlights the whole document.
+	 */
+	public void invalidateAll() {
+		version.incrementAndGet();
+		synchronized (lines) {
+			lines.markAllDirty();
+		}
+		scheduleFlush();
+	}
+
+	@Override
+	public void insertUpdate(DocumentEvent e) {
+		linesChanged(e);
+	}
+
+	@Override
+	public void removeUpdate(DocumentEvent e) {
+		linesChanged(e);
+	}
+
+	@Override
+	public void changedUpdate(DocumentEvent e) {
+		// attribute only, the text did not change
+	}
+
+	private void linesChanged(DocumentEvent e) {
+		version.incrementAndGet();
+		Element root = doc.getDefaultRootElement();
+		DocumentEvent.ElementChange change = e.getChange(root);
+		synchronized (lines) {
+			if (change != null) {
+				int index = change.getIndex();
+				lines.replaceLines(index, change.getChildrenRemoved().length, change.getChildrenAdded().length);
+				semanticTokens.replaceLines(index, change.getChildrenRemoved().length, change.getChildrenAdded().length);
+			}
+			// A styled document changes the first or last line of a multi-line
+			// edit in place, those are not part of the element change
+			int first = root.getElementIndex(e.getOffset());
+			int last = root.getElementIndex(e.getType() == DocumentEvent.EventType.INSERT ? e.getOffset() + e.getLength() : e.getOffset());
+			lines.markDirty(first);
+			semanticTokens.clearLine(first);
+			if (last != first) {
+				lines.markDirty(last);
+				semanticTokens.clearLine(last);
+			}
+		}
+		scheduleFlush();
+	}
+
+	private void scheduleFlush() {
+		if (requestPending) {
+			return;
+		}
+		// Styles can't be changed while the document is still notifying listeners
+		requestPending = true;
+		SwingUtilities.invokeLater(this::startPass);
+	}
+
+	private void startPass() {
+		requestPending = false;
+		if (passRunning) {
+			return;
+		}
+		synchronized (lines) {
+			if (nextWork(0, windowStart, windowEnd) < 0) {
+				return;
+			}
+		}
+		if (automaton == null) {
+			compileKeywords();
+		}
+		passRunning = true;
+		Lexer passLexer = lexer;
+		KeywordAutomaton keywords = automaton;
+		HighlightBatch batch = new HighlightBatch(groupStyles, tokenStyles.clone(), windowStart, windowEnd, tokenCache);
+		Thread.startVirtualThread(() -> {
+			try {
+				if (doc instanceof AbstractDocument ad) {
+					ad.render(() -> tokenize(batch, passLexer, keywords));
+				} else {
+					tokenize(batch, passLexer, keywords);
+				}
+			} finally {
+				SwingUtilities.invokeLater(() -> {
+					pending = batch;
+					applyFrame();
+				});
+			}
+		});
+	}
+
+	/**
+	 * Runs on the worker while the document is read locked, so the text can't
+	 * change underneath it.
+	 */
+	private void tokenize(HighlightBatch batch, Lexer lexer, KeywordAutomaton keywords) {
+		synchronized (lines) {
+			tokenizeDirtyLines(batch, lexer, keywords);
+		}
+	}
+
+	private void tokenizeDirtyLines(HighlightBatch batch, Lexer lexer, KeywordAutomaton keywords) {
+		batch.version = version.get();
+		Element root = doc.getDefaultRootElement();
+		int lineCount = Math.min(root.getElementCount(), lines.getLineCount());
+		DocumentText text = new DocumentText(doc, 0, 0);
+		int line = nextWork(0, batch.windowStart, batch.windowEnd);
+		int styledLines = 0;
+		int stateLines = 0;
+		while (line >= 0 && line < lineCount && line <= batch.windowEnd
+						&& styledLines < MAX_LINES_PER_PASS && stateLines < MAX_STATE_LINES_PER_PASS) {
+			boolean styled = line >= batch.windowStart;
+			int startState = line == 0 ? lexer.getInitialState()
+							: (batch.lastLine == line - 1 ? batch.lastState : lines.getState(line - 1));
+			Element lineEl = root.getElement(line);
+			int start = lineEl.getStartOffset();
+			int end = Math.min(lineEl.getEndOffset(), doc.getLength());
+			int endState = startState;
+			batch.beginLine(line, start, end, styled);
+			if (end > start) {
+				text.setRange(start, end);
+				if (styled) {
+					int first = batch.runCount;
+					endState = tokenizeLine(text, startState, lexer, keywords, batch);
+					int[] semantic = semanticTokens.getTokens(line);
+					if (semantic != null) {
+						overlaySemanticTokens(batch, first, semantic, end - start);
+					}
+				} else {
+					endState = tokenizeState(text, startState, lexer, batch.cache);
+				}
+			}
+			batch.endLine(endState);
+			if (styled) {
+				styledLines++;
+			} else {
+				stateLines++;
+			}
+
+			// spill over while the end state differs from what the next line saw
+			if (endState != lines.getState(line) && line + 1 < lineCount) {
+				line++;
+			} else {
+				line = nextWork(line + 1, batch.windowStart, batch.windowEnd);
+			}
+		}
+	}
+
+	/**
+	 * Next line that is dirty, or that lies in the window without carrying
+	 * its styles.
+	 */
+	private int nextWork(int fromLine, int windowStart, int windowEnd) {
+		int dirty = lines.nextDirty(fromLine);
+		int unstyled = lines.nextUnstyled(Math.max(fromLine, windowStart));
+		if (unstyled > windowEnd) {
+			unstyled = -1;
+		}
+		if (dirty < 0 || (unstyled >= 0 && unstyled < dirty)) {
+			return unstyled;
+		}
+		return dirty;
+	}
+
+	private static int tokenizeLine(CharSequence text, int startState, Lexer lexer, KeywordAutomaton keywords, HighlightBatch batch) {
+		TokenCache.Entry cached = batch.cache.get(startState, text);
+		if (cached != null) {
+			for (int r = 0; r < cached.runs.length; r += 3) {
+				batch.addRun(cached.runs[r], cached.runs[r + 1], cached.runs[r + 2]);
+			}
+			return cached.endState;
+		}
+
+		int first = batch.runCount;
+		int endState = lexer.tokenizeLine(text, startState, batch::addRun);
+		// the keywords of each gap go in before the token after it, so the
+		// runs of the line stay ascending
+		int tokenLength = (batch.runCount - first) * 3;
+		if (tokenLength > batch.tokens.length) {
+			batch.tokens = new int[tokenLength];
+		}
+		int[] tokens = batch.tokens;
+		System.arraycopy(batch.runs, first * 3, tokens, 0, tokenLength);
+		batch.runCount = first;
+
+		KeywordAutomaton.MatchSink words = (start, length, group) -> batch.addRun(start, length, TokenType.WORD_GROUP + group);
+		int pos = 0;
+		for (int r = 0; r < tokenLength; r += 3) {
+			int tokenStart = tokens[r];
+			if (tokenStart > pos) {
+				keywords.scan(text, pos, tokenStart, words);
+			}
+			batch.addRun(tokenStart, tokens[r + 1], tokens[r + 2]);
+			pos = Math.max(pos, tokenStart + tokens[r + 1]);
+		}
+		if (pos < text.length()) {
+			keywords.scan(text, pos, text.length(), words);
+		}
+		batch.cache.put(batch.cacheGeneration, startState, text, endState, batch.runs, first * 3, batch.runCount * 3);
+		return endState;
+	}
+
+	/**
+	 * Lays the semantic tokens of a line over its lexer runs, which are cut
+	 * back wherever they overlap, keeping the runs ascending.
+	 */
+	private static void overlaySemanticTokens(HighlightBatch batch, int first, int[] semantic, int lineLength) {
+		int[] lexical = Arrays.copyOfRange(batch.runs, first * 3, batch.runCount * 3);
+		batch.runCount = first;
+		int r = 0;
+		int pos = 0;
+		for (int t = 0; t < semantic.length; t += 3) {
+			int start = semantic[t];
+			int end = Math.min(lineLength, start + semantic[t + 1]);
+			if (start < pos || end <= start) {
+				continue;
+			}
+			r = addClippedRuns(batch, lexical, r, pos, start);
+			batch.addRun(start, end - start, semantic[t + 2]);
+			pos = end;
+		}
+		addClippedRuns(batch, lexical, r, pos, lineLength);
+	}
+
+	/**
+	 * Adds the parts of the runs from {@code r} on that fall in
+	 * {@code [from, to)}.
+	 *
+	 * @return the first run reaching past {@code to}
+	 */
+	private static int addClippedRuns(HighlightBatch batch, int[] runs, int r, int from, int to) {
+		while (r < runs.length) {
+			int runEnd = runs[r] + runs[r + 1];
+			int start = Math.max(from, runs[r]);
+			int end = Math.min(to, runEnd);
+			if (end > start) {
+				batch.addRun(start, end - start, runs[r + 2]);
+			}
+			if (runEnd > to) {
+				break;
+			}
+			r += 3;
+		}
+		return r;
+	}
+
+	private static int tokenizeState(CharSequence text, int startState, Lexer lexer, TokenCache cache) {
+		TokenCache.Entry cached = cache.get(startState, text);
+		if (cached != null) {
+			return cached.endState;
+		}
+		return lexer.tokenizeLine(text, startState, (start, length, tokenType) -> {
+		});
+	}
+
+	private void applyFrame() {
+		HighlightBatch batch = pending;
+		if (batch == null) {
+			applyTimer.stop();
+			return;
+		}
+		if (batch.version != version.get()) {
+			// a newer edit arrived, its pass re-tokenizes whatever is still dirty
+			finishPass();
+			return;
+		}
+
+		Style defaultStyle = StyleContext.getDefaultStyleContext().getStyle(StyleContext.DEFAULT_STYLE);
+		int budget = MAX_RUNS_PER_FRAME;
+		int damageStart = Integer.MAX_VALUE;
+		int damageEnd = -1;
+		while (batch.cursor < batch.lineCount && budget > 0) {
+			int i = batch.cursor++ * LINE_FIELDS;
+			int line = batch.lineInfo[i];
+			int start = batch.lineInfo[i + 1];
+			int end = batch.lineInfo[i + 2];
+			int endState = batch.lineInfo[i + 3];
+			int runsFrom = batch.lineInfo[i + 4];
+			int runsTo = batch.lineInfo[i + 5];
+			boolean styled = batch.lineInfo[i + 6] != 0;
+			if (styled && paintTimeMode) {
+				damageStart = Math.min(damageStart, start);
+				damageEnd = Math.max(damageEnd, end);
+				budget--;
+			} else if (styled) {
+				if (end > start) {
+					doc.setCharacterAttributes(start, end - start, defaultStyle, true);
+				}
+				for (int r = runsFrom; r < runsTo; r += 3) {
+					Style style = batch.styleFor(batch.runs[r + 2]);
+					if (style != null) {
+						doc.setCharacterAttributes(start + batch.runs[r], batch.runs[r + 1], style, true);
+					}
+				}
+				budget -= 1 + (runsTo - runsFrom) / 3;
+			}
+
+			synchronized (lines) {
+				lines.clearDirty(line);
+				if (styled) {
+					lines.clearUnstyled(line);
+					if (paintTimeMode) {
+						lines.setSpans(line, runsTo > runsFrom ? Arrays.copyOfRange(batch.runs, runsFrom, runsTo) : null);
+					}
+				} else {
+					lines.markUnstyled(line);
+				}
+				if (lines.setState(line, endState)) {
+					lines.markDirty(line + 1);
+				}
+			}
+		}
+
+		if (damageEnd >= 0) {
+			repaintRange(damageStart, damageEnd);
+		}
+
+		if (batch.cursor < batch.lineCount) {
+			if (!applyTimer.isRunning()) {
+				applyTimer.start();
+			}
+		} else {
+			finishPass();
+		}
+	}
+
+	private void repaintRange(int start, int end) {
+		try {
+			var r0 = component.modelToView2D(start);
+			var r1 = component.modelToView2D(Math.min(end, doc.getLength()));
+			if (r0 != null && r1 != null) {
+				Rectangle damage = r0.getBounds().union(r1.getBounds());
+				component.repaint(0, damage.y, component.getWidth(), damage.height);
+				return;
+			}
+		} catch (BadLocationException ignored) {
+		}
+		component.repaint();
+	}
+
+	private void finishPass() {
+		applyTimer.stop();
+		pending = null;
+		passRunning = false;
+		evictIfOverBudget();
+		scheduleFlush();
+	}
+
+	private void compileKeywords() {
+		List<List<String>> groups = new ArrayList<>(highlightTable.size());
+		groupStyles = new Style[highlightTable.size()];
+		for (var kv : highlightTable.entrySet()) {
+			groupStyles[groups.size()] = kv.getValue();
+			groups.add(kv.getKey());
+		}
+		automaton = KeywordAutomaton.build(groups);
+	}
+
+	/**
+	 * Style runs of one pass, packed into int arrays: per line
+	 * (line, start, end, endState, runsFrom, runsTo, styled) and per run
+	 * (offset in line, length, token type).
+	 */
+	private static final class HighlightBatch {
+
+		final Style[] groupStyles;
+		final Style[] tokenStyles;
+		final int windowStart;
+		final int windowEnd;
+		final TokenCache cache;
+		// the cache generation of the lexer and keywords the pass started with
+		final int cacheGeneration;
+		long version;
+		int[] lineInfo = new int[LINE_FIELDS * 64];
+		int lineCount = 0;
+		int[] runs = new int[3 * 256];
+		int runCount = 0;
+		// lexer tokens of the line being tokenized
+		int[] tokens = new int[3 * 32];
+		int cursor = 0;
+		int lastLine = -1;
+		int lastState = 0;
+
+		HighlightBatch(Style[] groupStyles, Style[] tokenStyles, int windowStart, int windowEnd, TokenCache cache) {
+			this.groupStyles = groupStyles;
+			this.tokenStyles = tokenStyles;
+			this.windowStart = windowStart;
+			this.windowEnd = windowEnd;
+			this.cache = cache;
+			this.cacheGeneration = cache.getGeneration();
+		}
+
+		Style styleFor(int tokenType) {
+			if (tokenType >= TokenType.WORD_GROUP) {
+				int group = tokenType - TokenType.WORD_GROUP;
+				return groupStyles != null && group < groupStyles.length ? groupStyles[group] : null;
+			}
+			return tokenType > 0 && tokenType < tokenStyles.length ? tokenStyles[tokenType] : null;
+		}
+
+		void beginLine(int line, int start, int end, boolean styled) {
+			if ((lineCount + 1) * LINE_FIELDS > lineInfo.length) {
+				lineInfo = Arrays.copyOf(lineInfo, lineInfo.length * 2);
+			}
+			int i = lineCount * LINE_FIELDS;
+			lineInfo[i] = line;
+			lineInfo[i + 1] = start;
+			lineInfo[i + 2] = end;
+			lineInfo[i + 4] = runCount * 3;
+			lineInfo[i + 6] = styled ? 1 : 0;
+		}
+
+		void addRun(int offset, int length, int tokenType) {
+			if ((runCount + 1) * 3 > runs.length) {
+				runs = Arrays.copyOf(runs, runs.length * 2);
+			}
+			int i = runCount * 3;
+			runs[i] = offset;
+			runs[i + 1] = length;
+			runs[i + 2] = tokenType;
+			runCount++;
+		}
+
+		void endLine(int endState) {
+			int i = lineCount * LINE_FIELDS;
+			lineInfo[i + 3] = endState;
+			lineInfo[i + 5] = runCount * 3;
+			lastLine = lineInfo[i];
+			lastState = endState;
+			lineCount++;
+		}
+	}
+}
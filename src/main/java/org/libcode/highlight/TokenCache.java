@@ -0,0 +1,142 @@
+package org.libcode.highlight;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of tokenized lines keyed by the lexer start state and the line
+ * content. Closing braces, blank lines and boilerplate repeat a lot, so most
+ * lines of a file never have to be tokenized twice.
+ *
+ * A cache can be shared between editors as long as they use the same lexer
+ * and the same word groups in the same order, the cached token types depend
+ * on both. It is safe to use from several highlighter workers at once.
+ *
+ * Clearing the cache starts a new generation. A worker passes the
+ * generation it started in along with the lines it tokenized, so a pass
+ * still running with the old lexer or word groups can't put its lines back.
+ *
+ * @author hexaredecimal
+ */
+public class TokenCache {
+
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	public static final class Entry {
+		public final int endState;
+		// packed (offset in line, length, token type) triples
+		public final int[] runs;
+		private final char[] text;
+
+		private Entry(int endState, int[] runs, char[] text) {
+			this.endState = endState;
+			this.runs = runs;
+			this.text = text;
+		}
+	}
+
+	private final int capacity;
+	private final LinkedHashMap<Long, Entry> entries;
+	private long hits = 0;
+	private long misses = 0;
+	private int generation = 0;
+
+	public TokenCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public TokenCache(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+				return size() > TokenCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * @return the cached tokens of {@code line} when lexed from
+	 * {@code startState}, or null.
+	 */
+	public synchronized Entry get(int startState, CharSequence line) {
+		Entry entry = entries.get(key(startState, line));
+		if (entry != null && sameText(entry.text, line)) {
+			hits++;
+			return entry;
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Caches the runs {@code runs[from, to)} of a freshly tokenized line,
+	 * unless the cache was cleared since {@code generation}.
+	 */
+	public synchronized void put(int generation, int startState, CharSequence line, int endState, int[] runs, int from, int to) {
+		if (generation != this.generation) {
+			return;
+		}
+		char[] text = new char[line.length()];
+		for (int i = 0; i < text.length; i++) {
+			text[i] = line.charAt(i);
+		}
+		int[] copy = new int[to - from];
+		System.arraycopy(runs, from, copy, 0, copy.length);
+		entries.put(key(startState, line), new Entry(endState, copy, text));
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		generation++;
+	}
+
+	/**
+	 * @return the generation to pass to {@link #put}, it changes whenever
+	 * the cache is cleared
+	 */
+	public synchronized int getGeneration() {
+		return generation;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized void resetStatistics() {
+		hits = 0;
+		misses = 0;
+	}
+
+	private static long key(int startState, CharSequence line) {
+		int hash = 0;
+		for (int i = 0; i < line.length(); i++) {
+			hash = 31 * hash + line.charAt(i);
+		}
+		return ((long) startState << 32) | (hash & 0xffffffffL);
+	}
+
+	private static boolean sameText(char[] text, CharSequence line) {
+		if (text.length != line.length()) {
+			return false;
+		}
+		for (int i = 0; i < text.length; i++) {
+			if (text[i] != line.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
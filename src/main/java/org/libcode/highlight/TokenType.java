@@ -0,0 +1,43 @@
+package org.libcode.highlight;
+
+/**
+ * Token types reported by a {@link Lexer}. Every type can be given its own
+ * style through {@code CodeArea.setTokenStyle}.
+ *
+ * @author hexaredecimal
+ */
+public class TokenType {
+	public static final int DEFAULT = 0;
+	public static final int KEYWORD = 1;
+	public static final int TYPE = 2;
+	public static final int COMMENT = 3;
+	public static final int STRING = 4;
+	public static final int NUMBER = 5;
+	public static final int ANNOTATION = 6;
+	public static final int OPERATOR = 7;
+	public static final int FUNCTION = 8;
+	public static final int VARIABLE = 9;
+	public static final int PARAMETER = 10;
+	public static final int PROPERTY = 11;
+	public static final int NAMESPACE = 12;
+	// word groups added with addHighlightedWords are reported as WORD_GROUP + index
+	public static final int WORD_GROUP = 1 << 16;
+
+	private static final String[] NAMES = {
+		"default", "keyword", "type", "comment", "string", "number", "annotation",
+		"operator", "function", "variable", "parameter", "property", "namespace"
+	};
+
+	/**
+	 * @return the type with the given case insensitive name, e.g. "comment",
+	 * or -1 if there is none.
+	 */
+	public static int forName(String name) {
+		for (int i = 0; i < NAMES.length; i++) {
+			if (NAMES[i].equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,340 @@
+package org.libcode.highlight.grammar;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import org.libcode.highlight.Lexer;
+import org.libcode.highlight.TokenType;
+
+/**
+ * Lexer built from a grammar of regex rules. All rules are compiled into a
+ * single DFA when the grammar is loaded, so a line is scanned once no matter
+ * how many rules there are.
+ *
+ * A grammar has one rule per line, blank lines and lines starting with
+ * {@code #} are ignored:
+ * <pre>
+ * # token type, then a regex up to the end of the line
+ * number      \d+(\.\d+)?
+ * string      "([^"\\]|\\.)*"?
+ * comment     //.*
+ * annotation  &#64;\w+
+ * # a block spans lines until the end delimiter, both are plain text
+ * block comment /* *&#47;
+ * </pre>
+ * The type is one of the {@link TokenType} names, {@code default} consumes
+ * text without styling it, and the word groups are not matched in it
+ * either. At every position the longest match wins, and of equally long
+ * matches the rule listed first. Text no rule matches is left to the word
+ * groups of {@code addHighlightedWords}.
+ *
+ * @author hexaredecimal
+ */
+public class GrammarLexer implements Lexer {
+
+	private static final int NORMAL = 0;
+
+	private final int[] ruleTypes;
+	// end delimiters of block rules, null for regex rules
+	private final String[] blockEnds;
+	private final char[] classOf;
+	private final int classCount;
+	// transitions of state s are at s * classCount, -1 is the dead state
+	private final int[] next;
+	// lowest rule accepted in a state, or -1
+	private final int[] accept;
+
+	private GrammarLexer(int[] ruleTypes, String[] blockEnds, char[] classOf, int classCount, int[] next, int[] accept) {
+		this.ruleTypes = ruleTypes;
+		this.blockEnds = blockEnds;
+		this.classOf = classOf;
+		this.classCount = classCount;
+		this.next = next;
+		this.accept = accept;
+	}
+
+	public static GrammarLexer load(Path path) throws IOException {
+		try (InputStream in = Files.newInputStream(path)) {
+			return load(in);
+		}
+	}
+
+	public static GrammarLexer load(InputStream in) throws IOException {
+		return compile(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the grammar is malformed
+	 */
+	public static GrammarLexer parse(String grammar) {
+		try {
+			return compile(new BufferedReader(new StringReader(grammar)));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static GrammarLexer compile(BufferedReader reader) throws IOException {
+		Nfa nfa = new Nfa();
+		int start = nfa.newState();
+		List<Integer> types = new ArrayList<>();
+		List<String> ends = new ArrayList<>();
+
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			String rule = line.strip();
+			if (rule.isEmpty() || rule.startsWith("#")) {
+				continue;
+			}
+			String[] parts = rule.split("\\s+", 2);
+			if (parts.length < 2) {
+				throw new IllegalArgumentException("Line " + lineNumber + ": rule without a pattern");
+			}
+			try {
+				if (parts[0].equals("block")) {
+					String[] block = parts[1].split("\\s+");
+					if (block.length != 3) {
+						throw new IllegalArgumentException("expected: block <type> <begin> <end>");
+					}
+					int[] fragment = literal(nfa, block[1]);
+					addRule(nfa, start, fragment, types.size());
+					types.add(typeOf(block[0]));
+					ends.add(block[2]);
+				} else {
+					int[] fragment = RegexParser.parse(nfa, parts[1].strip());
+					addRule(nfa, start, fragment, types.size());
+					types.add(typeOf(parts[0]));
+					ends.add(null);
+				}
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+			}
+		}
+		return build(nfa, start, types.stream().mapToInt(Integer::intValue).toArray(), ends.toArray(String[]::new));
+	}
+
+	private static void addRule(Nfa nfa, int start, int[] fragment, int rule) {
+		nfa.addEpsilon(start, fragment[0]);
+		nfa.setAccept(fragment[1], rule);
+	}
+
+	private static int[] literal(Nfa nfa, String text) {
+		int first = nfa.newState();
+		int current = first;
+		for (int i = 0; i < text.length(); i++) {
+			int state = nfa.newState();
+			nfa.addRange(current, text.charAt(i), text.charAt(i), state);
+			current = state;
+		}
+		return new int[]{first, current};
+	}
+
+	private static int typeOf(String name) {
+		int type = TokenType.forName(name);
+		if (type < 0) {
+			throw new IllegalArgumentException("unknown token type '" + name + "'");
+		}
+		return type;
+	}
+
+	/**
+	 * Subset construction over the char classes the rule ranges split the
+	 * alphabet into.
+	 */
+	private static GrammarLexer build(Nfa nfa, int start, int[] ruleTypes, String[] blockEnds) {
+		TreeSet<Integer> bounds = new TreeSet<>();
+		bounds.add(0);
+		for (int s = 0; s < nfa.size(); s++) {
+			for (int r = 0; r < nfa.getRangeCount(s); r++) {
+				bounds.add((int) nfa.getRangeLo(s, r));
+				if (nfa.getRangeHi(s, r) < Character.MAX_VALUE) {
+					bounds.add(nfa.getRangeHi(s, r) + 1);
+				}
+			}
+		}
+		char[] classOf = new char[Character.MAX_VALUE + 1];
+		int classCount = 0;
+		Integer[] starts = bounds.toArray(Integer[]::new);
+		for (int i = 0; i < starts.length; i++) {
+			int end = i + 1 < starts.length ? starts[i + 1] : Character.MAX_VALUE + 1;
+			Arrays.fill(classOf, starts[i], end, (char) classCount++);
+		}
+
+		List<BitSet> states = new ArrayList<>();
+		Map<BitSet, Integer> ids = new HashMap<>();
+		int[] next = new int[0];
+		int[] accept = new int[0];
+
+		BitSet initial = new BitSet();
+		initial.set(start);
+		closure(nfa, initial);
+		states.add(initial);
+		ids.put(initial, 0);
+		for (int d = 0; d < states.size(); d++) {
+			BitSet set = states.get(d);
+			BitSet[] moves = new BitSet[classCount];
+			int rule = -1;
+			for (int s = set.nextSetBit(0); s >= 0; s = set.nextSetBit(s + 1)) {
+				int accepted = nfa.getAccept(s);
+				if (accepted >= 0 && (rule < 0 || accepted < rule)) {
+					rule = accepted;
+				}
+				for (int r = 0; r < nfa.getRangeCount(s); r++) {
+					int hi = classOf[nfa.getRangeHi(s, r)];
+					for (int c = classOf[nfa.getRangeLo(s, r)]; c <= hi; c++) {
+						if (moves[c] == null) {
+							moves[c] = new BitSet();
+						}
+						moves[c].set(nfa.getRangeTarget(s, r));
+					}
+				}
+			}
+			if (next.length < (d + 1) * classCount) {
+				next = Arrays.copyOf(next, Math.max((d + 1) * classCount, next.length * 2));
+				accept = Arrays.copyOf(accept, Math.max(d + 1, accept.length * 2));
+			}
+			accept[d] = rule;
+			for (int c = 0; c < classCount; c++) {
+				if (moves[c] == null) {
+					next[d * classCount + c] = -1;
+					continue;
+				}
+				closure(nfa, moves[c]);
+				Integer target = ids.get(moves[c]);
+				if (target == null) {
+					target = states.size();
+					states.add(moves[c]);
+					ids.put(moves[c], target);
+				}
+				next[d * classCount + c] = target;
+			}
+		}
+		return new GrammarLexer(ruleTypes, blockEnds, classOf, classCount,
+			Arrays.copyOf(next, states.size() * classCount), Arrays.copyOf(accept, states.size()));
+	}
+
+	private static void closure(Nfa nfa, BitSet set) {
+		int[] stack = new int[nfa.size()];
+		int top = 0;
+		for (int s = set.nextSetBit(0); s >= 0; s = set.nextSetBit(s + 1)) {
+			stack[top++] = s;
+		}
+		while (top > 0) {
+			int s = stack[--top];
+			for (int e = 0; e < nfa.getEpsilonCount(s); e++) {
+				int target = nfa.getEpsilon(s, e);
+				if (!set.get(target)) {
+					set.set(target);
+					stack[top++] = target;
+				}
+			}
+		}
+	}
+
+	public int getRuleCount() {
+		return ruleTypes.length;
+	}
+
+	public int getDfaStateCount() {
+		return accept.length;
+	}
+
+	@Override
+	public int tokenizeLine(CharSequence line, int startState, TokenSink sink) {
+		int len = line.length();
+		int i = 0;
+		if (startState != NORMAL) {
+			int rule = startState - 1;
+			if (rule >= blockEnds.length || blockEnds[rule] == null) {
+				rule = -1;
+			}
+			if (rule >= 0) {
+				int end = indexOf(line, blockEnds[rule], 0);
+				if (end < 0) {
+					emit(sink, 0, len, ruleTypes[rule]);
+					return startState;
+				}
+				i = end + blockEnds[rule].length();
+				emit(sink, 0, i, ruleTypes[rule]);
+			}
+		}
+
+		while (i < len) {
+			int state = 0;
+			int matchRule = -1;
+			int matchEnd = i;
+			for (int j = i; j < len; j++) {
+				state = next[state * classCount + classOf[line.charAt(j)]];
+				if (state < 0) {
+					break;
+				}
+				if (accept[state] >= 0) {
+					matchRule = accept[state];
+					matchEnd = j + 1;
+				}
+			}
+
+			if (matchRule < 0) {
+				i = skip(line, i);
+			} else if (blockEnds[matchRule] != null) {
+				int end = indexOf(line, blockEnds[matchRule], matchEnd);
+				if (end < 0) {
+					emit(sink, i, len - i, ruleTypes[matchRule]);
+					return matchRule + 1;
+				}
+				int stop = end + blockEnds[matchRule].length();
+				emit(sink, i, stop - i, ruleTypes[matchRule]);
+				i = stop;
+			} else {
+				emit(sink, i, matchEnd - i, ruleTypes[matchRule]);
+				i = matchEnd;
+			}
+		}
+		return NORMAL;
+	}
+
+	private static void emit(TokenSink sink, int start, int length, int type) {
+		if (length > 0) {
+			sink.token(start, length, type);
+		}
+	}
+
+	// skip whole identifiers so rules never start in the middle of one
+	private static int skip(CharSequence line, int i) {
+		if (!Character.isJavaIdentifierPart(line.charAt(i))) {
+			return i + 1;
+		}
+		i++;
+		while (i < line.length() && Character.isJavaIdentifierPart(line.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	private static int indexOf(CharSequence text, String needle, int from) {
+		outer:
+		for (int i = from; i + needle.length() <= text.length(); i++) {
+			for (int k = 0; k < needle.length(); k++) {
+				if (text.charAt(i + k) != needle.charAt(k)) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+}
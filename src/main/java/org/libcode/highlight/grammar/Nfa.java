@@ -0,0 +1,89 @@
+package org.libcode.highlight.grammar;
+
+import java.util.Arrays;
+
+/**
+ * Thompson NFA over char ranges, the intermediate form of grammar rules
+ * before they are merged into one DFA.
+ *
+ * @author hexaredecimal
+ */
+public class Nfa {
+
+	private int[][] epsilons = new int[64][];
+	private int[] epsilonCounts = new int[64];
+	// packed (lo, hi, target) triples per state
+	private int[][] ranges = new int[64][];
+	private int[] rangeCounts = new int[64];
+	private int[] accepts = new int[64];
+	private int size = 0;
+
+	public int newState() {
+		if (size == accepts.length) {
+			int capacity = size * 2;
+			epsilons = Arrays.copyOf(epsilons, capacity);
+			epsilonCounts = Arrays.copyOf(epsilonCounts, capacity);
+			ranges = Arrays.copyOf(ranges, capacity);
+			rangeCounts = Arrays.copyOf(rangeCounts, capacity);
+			accepts = Arrays.copyOf(accepts, capacity);
+		}
+		epsilons[size] = new int[2];
+		ranges[size] = new int[3];
+		accepts[size] = -1;
+		return size++;
+	}
+
+	public void addEpsilon(int from, int to) {
+		if (epsilonCounts[from] == epsilons[from].length) {
+			epsilons[from] = Arrays.copyOf(epsilons[from], epsilons[from].length * 2);
+		}
+		epsilons[from][epsilonCounts[from]++] = to;
+	}
+
+	public void addRange(int from, char lo, char hi, int to) {
+		int i = rangeCounts[from] * 3;
+		if (i + 3 > ranges[from].length) {
+			ranges[from] = Arrays.copyOf(ranges[from], ranges[from].length * 2);
+		}
+		ranges[from][i] = lo;
+		ranges[from][i + 1] = hi;
+		ranges[from][i + 2] = to;
+		rangeCounts[from]++;
+	}
+
+	public void setAccept(int state, int rule) {
+		accepts[state] = rule;
+	}
+
+	public int getAccept(int state) {
+		return accepts[state];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getEpsilonCount(int state) {
+		return epsilonCounts[state];
+	}
+
+	public int getEpsilon(int state, int i) {
+		return epsilons[state][i];
+	}
+
+	public int getRangeCount(int state) {
+		return rangeCounts[state];
+	}
+
+	public char getRangeLo(int state, int i) {
+		return (char) ranges[state][i * 3];
+	}
+
+	public char getRangeHi(int state, int i) {
+		return (char) ranges[state][i * 3 + 1];
+	}
+
+	public int getRangeTarget(int state, int i) {
+		return ranges[state][i * 3 + 2];
+	}
+}
@@ -0,0 +1,310 @@
+package org.libcode.highlight.grammar;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the regex subset of grammar rules into NFA fragments.
+ *
+ * Supported are literals, {@code .}, character classes with ranges and
+ * negation, the escapes {@code \d \w \s \D \W \S \n \t \r \f}, groups,
+ * alternation and the quantifiers {@code * + ? {m} {m,} {m,n}}. Anchors and
+ * back references are not, every rule matches at the current position.
+ *
+ * @author hexaredecimal
+ */
+public class RegexParser {
+
+	private static final int MAX_REPEAT = 100;
+
+	private final Nfa nfa;
+	private final String src;
+	private int pos = 0;
+
+	private RegexParser(Nfa nfa, String src) {
+		this.nfa = nfa;
+		this.src = src;
+	}
+
+	/**
+	 * Adds the regex to the NFA.
+	 *
+	 * @return the fragment as {start, end}
+	 * @throws IllegalArgumentException on a syntax error
+	 */
+	public static int[] parse(Nfa nfa, String regex) {
+		RegexParser parser = new RegexParser(nfa, regex);
+		int[] fragment = parser.alternation();
+		if (parser.pos < regex.length()) {
+			throw parser.error("unexpected '" + regex.charAt(parser.pos) + "'");
+		}
+		return fragment;
+	}
+
+	private int[] alternation() {
+		int[] left = sequence();
+		while (peek() == '|') {
+			pos++;
+			int[] right = sequence();
+			int start = nfa.newState();
+			int end = nfa.newState();
+			nfa.addEpsilon(start, left[0]);
+			nfa.addEpsilon(start, right[0]);
+			nfa.addEpsilon(left[1], end);
+			nfa.addEpsilon(right[1], end);
+			left = new int[]{start, end};
+		}
+		return left;
+	}
+
+	private int[] sequence() {
+		int[] fragment = null;
+		while (pos < src.length() && peek() != '|' && peek() != ')') {
+			int[] next = repeat();
+			if (fragment == null) {
+				fragment = next;
+			} else {
+				nfa.addEpsilon(fragment[1], next[0]);
+				fragment = new int[]{fragment[0], next[1]};
+			}
+		}
+		if (fragment == null) {
+			int state = nfa.newState();
+			fragment = new int[]{state, state};
+		}
+		return fragment;
+	}
+
+	private int[] repeat() {
+		int atomStart = pos;
+		int[] fragment = atom();
+		int atomEnd = pos;
+		while (pos < src.length()) {
+			char c = src.charAt(pos);
+			if (c == '*' || c == '+' || c == '?') {
+				pos++;
+				fragment = quantify(fragment, c == '+' ? 1 : 0, c == '?' ? 1 : -1);
+			} else if (c == '{' && isCounted()) {
+				pos++;
+				int min = number();
+				int max = min;
+				if (peek() == ',') {
+					pos++;
+					max = peek() == '}' ? -1 : number();
+				}
+				expect('}');
+				if (max >= 0 && max < min || Math.max(min, max) > MAX_REPEAT) {
+					throw error("bad repetition count");
+				}
+				int after = pos;
+				fragment = counted(fragment, atomStart, atomEnd, min, max);
+				pos = after;
+			} else {
+				break;
+			}
+		}
+		return fragment;
+	}
+
+	/**
+	 * Applies {min, max} to a fragment, max -1 meaning unbounded; min and
+	 * max are 0 or 1 here.
+	 */
+	private int[] quantify(int[] fragment, int min, int max) {
+		int start = nfa.newState();
+		int end = nfa.newState();
+		nfa.addEpsilon(start, fragment[0]);
+		nfa.addEpsilon(fragment[1], end);
+		if (min == 0) {
+			nfa.addEpsilon(start, end);
+		}
+		if (max < 0) {
+			nfa.addEpsilon(fragment[1], fragment[0]);
+		}
+		return new int[]{start, end};
+	}
+
+	/**
+	 * Expands {m,n} by parsing the atom again for every copy.
+	 */
+	private int[] counted(int[] first, int atomStart, int atomEnd, int min, int max) {
+		List<int[]> copies = new ArrayList<>();
+		copies.add(first);
+		int needed = Math.max(min, max < 0 ? min + 1 : max);
+		while (copies.size() < needed) {
+			pos = atomStart;
+			copies.add(atom());
+			pos = atomEnd;
+		}
+		int start = nfa.newState();
+		int end = nfa.newState();
+		int current = start;
+		for (int i = 0; i < copies.size(); i++) {
+			int[] copy = copies.get(i);
+			if (i >= min) {
+				nfa.addEpsilon(current, end);
+			}
+			nfa.addEpsilon(current, copy[0]);
+			current = copy[1];
+			if (max < 0 && i == copies.size() - 1) {
+				nfa.addEpsilon(copy[1], copy[0]);
+			}
+		}
+		nfa.addEpsilon(current, end);
+		return new int[]{start, end};
+	}
+
+	private int[] atom() {
+		if (pos >= src.length()) {
+			throw error("unexpected end");
+		}
+		char c = src.charAt(pos++);
+		switch (c) {
+			case '(' -> {
+				if (src.startsWith("?:", pos)) {
+					pos += 2;
+				}
+				int[] inner = alternation();
+				expect(')');
+				return inner;
+			}
+			case '[' -> {
+				return ranges(charClass());
+			}
+			case '.' -> {
+				return ranges(new char[]{0, '\n' - 1, '\n' + 1, Character.MAX_VALUE});
+			}
+			case '\\' -> {
+				return ranges(escape());
+			}
+			case '*', '+', '?', ')' -> throw error("unexpected '" + c + "'");
+			default -> {
+				return ranges(new char[]{c, c});
+			}
+		}
+	}
+
+	private int[] ranges(char[] pairs) {
+		int start = nfa.newState();
+		int end = nfa.newState();
+		for (int i = 0; i < pairs.length; i += 2) {
+			nfa.addRange(start, pairs[i], pairs[i + 1], end);
+		}
+		return new int[]{start, end};
+	}
+
+	private char[] charClass() {
+		boolean negate = peek() == '^';
+		if (negate) {
+			pos++;
+		}
+		StringBuilder pairs = new StringBuilder();
+		boolean first = true;
+		while (pos < src.length() && (src.charAt(pos) != ']' || first)) {
+			first = false;
+			char[] lo;
+			if (src.charAt(pos) == '\\') {
+				pos++;
+				lo = escape();
+			} else {
+				char c = src.charAt(pos++);
+				lo = new char[]{c, c};
+			}
+			if (lo.length == 2 && lo[0] == lo[1] && peek() == '-' && pos + 1 < src.length() && src.charAt(pos + 1) != ']') {
+				pos++;
+				char hi = src.charAt(pos++);
+				if (hi == '\\') {
+					char[] escaped = escape();
+					hi = escaped[escaped.length - 1];
+				}
+				if (hi < lo[0]) {
+					throw error("bad range");
+				}
+				lo[1] = hi;
+			}
+			pairs.append(lo);
+		}
+		expect(']');
+		char[] result = pairs.toString().toCharArray();
+		return negate ? complement(result) : result;
+	}
+
+	private char[] escape() {
+		if (pos >= src.length()) {
+			throw error("dangling '\\'");
+		}
+		char c = src.charAt(pos++);
+		return switch (c) {
+			case 'd' -> new char[]{'0', '9'};
+			case 'w' -> new char[]{'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+			case 's' -> new char[]{'\t', '\r', ' ', ' '};
+			case 'D' -> complement(new char[]{'0', '9'});
+			case 'W' -> complement(new char[]{'0', '9', 'A', 'Z', '_', '_', 'a', 'z'});
+			case 'S' -> complement(new char[]{'\t', '\r', ' ', ' '});
+			case 'n' -> new char[]{'\n', '\n'};
+			case 't' -> new char[]{'\t', '\t'};
+			case 'r' -> new char[]{'\r', '\r'};
+			case 'f' -> new char[]{'\f', '\f'};
+			default -> new char[]{c, c};
+		};
+	}
+
+	private static char[] complement(char[] pairs) {
+		boolean[] covered = new boolean[Character.MAX_VALUE + 1];
+		for (int i = 0; i < pairs.length; i += 2) {
+			for (int c = pairs[i]; c <= pairs[i + 1]; c++) {
+				covered[c] = true;
+			}
+		}
+		StringBuilder out = new StringBuilder();
+		int c = 0;
+		while (c <= Character.MAX_VALUE) {
+			if (covered[c]) {
+				c++;
+				continue;
+			}
+			int lo = c;
+			while (c <= Character.MAX_VALUE && !covered[c]) {
+				c++;
+			}
+			out.append((char) lo).append((char) (c - 1));
+		}
+		return out.toString().toCharArray();
+	}
+
+	private boolean isCounted() {
+		int i = pos + 1;
+		int digits = 0;
+		while (i < src.length() && Character.isDigit(src.charAt(i))) {
+			i++;
+			digits++;
+		}
+		return digits > 0 && i < src.length() && (src.charAt(i) == '}' || src.charAt(i) == ',');
+	}
+
+	private int number() {
+		int start = pos;
+		while (pos < src.length() && Character.isDigit(src.charAt(pos))) {
+			pos++;
+		}
+		if (start == pos) {
+			throw error("number expected");
+		}
+		return Integer.parseInt(src.substring(start, pos));
+	}
+
+	private char peek() {
+		return pos < src.length() ? src.charAt(pos) : '\0';
+	}
+
+	private void expect(char c) {
+		if (peek() != c) {
+			throw error("'" + c + "' expected");
+		}
+		pos++;
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at " + pos + " in /" + src + "/");
+	}
+}
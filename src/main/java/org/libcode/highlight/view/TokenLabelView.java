@@ -0,0 +1,106 @@
+package org.libcode.highlight.view;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Shape;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.LabelView;
+import org.libcode.highlight.SyntaxHighlighter;
+import org.libcode.ui.CodePane;
+
+/**
+ * Label view that colors its text from the token spans of the highlighter
+ * while painting, so paint-time highlighting never touches the document.
+ * The spans of a line are ascending and do not overlap, so a view only
+ * walks the ones from the first that reaches into it.
+ *
+ * @author hexaredecimal
+ */
+public class TokenLabelView extends LabelView {
+
+	private final CodePane pane;
+
+	public TokenLabelView(Element elem, CodePane pane) {
+		super(elem);
+		this.pane = pane;
+	}
+
+	@Override
+	public void paint(Graphics g, Shape a) {
+		SyntaxHighlighter highlighter = pane.getSyntaxHighlighter();
+		if (highlighter == null || !highlighter.isPaintTimeMode()) {
+			super.paint(g, a);
+			return;
+		}
+		int p0 = getStartOffset();
+		int p1 = getEndOffset();
+		Element root = getDocument().getDefaultRootElement();
+		int line = root.getElementIndex(p0);
+		int[] spans = highlighter.getLineSpans(line);
+		if (spans == null) {
+			super.paint(g, a);
+			return;
+		}
+
+		checkPainter();
+		Color fg = getForeground();
+		int lineStart = root.getElement(line).getStartOffset();
+		int pos = p0;
+		for (int i = firstSpan(spans, p0 - lineStart); i < spans.length && pos < p1; i += 3) {
+			int s0 = Math.max(pos, lineStart + spans[i]);
+			int s1 = Math.min(p1, lineStart + spans[i] + spans[i + 1]);
+			if (s1 <= s0) {
+				continue;
+			}
+			if (s0 > pos) {
+				paintRange(g, a, pos, s0, fg);
+			}
+			Color color = highlighter.getTokenColor(spans[i + 2]);
+			paintRange(g, a, s0, s1, color != null ? color : fg);
+			pos = s1;
+		}
+		if (pos < p1) {
+			paintRange(g, a, pos, p1, fg);
+		}
+	}
+
+	// index of the first span ending after offset
+	private static int firstSpan(int[] spans, int offset) {
+		int lo = 0;
+		int hi = spans.length / 3;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (spans[mid * 3] + spans[mid * 3 + 1] <= offset) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo * 3;
+	}
+
+	private void paintRange(Graphics g, Shape a, int p0, int p1, Color color) {
+		Color selected = pane.getSelectedTextColor();
+		int sel0 = pane.getSelectionStart();
+		int sel1 = pane.getSelectionEnd();
+		if (selected != null && sel0 != sel1 && sel0 < p1 && sel1 > p0 && pane.getCaret().isSelectionVisible()) {
+			int from = Math.max(p0, sel0);
+			int to = Math.min(p1, sel1);
+			if (from > p0) {
+				paintText(g, a, p0, from, color);
+			}
+			paintText(g, a, from, to, selected);
+			if (to < p1) {
+				paintText(g, a, to, p1, color);
+			}
+		} else {
+			paintText(g, a, p0, p1, color);
+		}
+	}
+
+	private void paintText(Graphics g, Shape a, int p0, int p1, Color color) {
+		g.setColor(color);
+		getGlyphPainter().paint(this, g, a, p0, p1);
+	}
+}
@@ -0,0 +1,164 @@
+package org.libcode.intelisense;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Sorted catalog of completion items, meant for whole API catalogs with
+ * hundreds of thousands of entries.
+ *
+ * Items are kept in one array ordered by name, with the names in a parallel
+ * array. The items starting with a char are a contiguous range found with
+ * two binary searches, so a fuzzy lookup only scores the items that can
+ * match at all. Added items are sorted in on the next lookup, loading a
+ * catalog in bulk costs a single sort.
+ *
+ * Fuzzy lookups remember which items matched, when the pattern is extended
+ * only those are scored again.
+ *
+ * @author hexaredecimal
+ */
+public class CompletionCatalog {
+
+	private IntellisenseItem[] items = new IntellisenseItem[0];
+	private String[] names = new String[0];
+	private final List<IntellisenseItem> added = new ArrayList<>();
+	// indices of the items that matched the last fuzzy pattern
+	private String lastPattern = null;
+	private int[] lastMatches = new int[0];
+	private int lastMatchCount = 0;
+
+	public synchronized void add(IntellisenseItem item) {
+		added.add(item);
+	}
+
+	public synchronized void addAll(Collection<IntellisenseItem> items) {
+		added.addAll(items);
+	}
+
+	public synchronized void clear() {
+		items = new IntellisenseItem[0];
+		names = new String[0];
+		added.clear();
+		lastPattern = null;
+	}
+
+	public synchronized int size() {
+		return items.length + added.size();
+	}
+
+	/**
+	 * Scores the items against {@code pattern} with {@link FuzzyMatcher} and
+	 * offers the matches to {@code top}.
+	 */
+	public synchronized void fuzzyFind(String pattern, TopK<IntellisenseItem> top) {
+		sortAdded();
+		if (pattern.isEmpty()) {
+			for (int i = 0; i < items.length; i++) {
+				top.offer(items[i], names[i], 0);
+			}
+			lastPattern = null;
+			return;
+		}
+		int[] matches;
+		int matchCount;
+		if (lastPattern != null && pattern.startsWith(lastPattern)) {
+			matches = new int[Math.max(1, lastMatchCount)];
+			matchCount = score(pattern, lastMatches, lastMatchCount, top, matches);
+		} else {
+			// every match starts with the first char of the pattern, in either case
+			String lower = String.valueOf(Character.toLowerCase(pattern.charAt(0)));
+			String upper = String.valueOf(Character.toUpperCase(pattern.charAt(0)));
+			int lowerFrom = lowerBound(lower);
+			int lowerTo = upperBound(lower, lowerFrom);
+			int upperFrom = lowerBound(upper);
+			int upperTo = lower.equals(upper) ? upperFrom : upperBound(upper, upperFrom);
+			int[] candidates = new int[lowerTo - lowerFrom + upperTo - upperFrom];
+			int n = 0;
+			for (int i = lowerFrom; i < lowerTo; i++) {
+				candidates[n++] = i;
+			}
+			for (int i = upperFrom; i < upperTo; i++) {
+				candidates[n++] = i;
+			}
+			matches = candidates;
+			matchCount = score(pattern, candidates, n, top, matches);
+		}
+		lastPattern = pattern;
+		lastMatches = matches;
+		lastMatchCount = matchCount;
+	}
+
+	// scores candidates[0, count) and compacts the matching ones into matches
+	private int score(String pattern, int[] candidates, int count, TopK<IntellisenseItem> top, int[] matches) {
+		int matchCount = 0;
+		for (int i = 0; i < count; i++) {
+			int index = candidates[i];
+			int score = FuzzyMatcher.score(pattern, names[index]);
+			if (score != FuzzyMatcher.NO_MATCH) {
+				top.offer(items[index], names[index], score);
+				matches[matchCount++] = index;
+			}
+		}
+		return matchCount;
+	}
+
+	/**
+	 * @return the item named {@code name}, or null
+	 */
+	public synchronized IntellisenseItem get(String name) {
+		sortAdded();
+		int i = lowerBound(name);
+		return i < names.length && names[i].equals(name) ? items[i] : null;
+	}
+
+	private int lowerBound(String prefix) {
+		int lo = 0;
+		int hi = names.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (names[mid].compareTo(prefix) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	// first index at or after from whose name does not start with prefix
+	private int upperBound(String prefix, int from) {
+		int lo = from;
+		int hi = names.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (names[mid].startsWith(prefix)) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private void sortAdded() {
+		if (added.isEmpty()) {
+			return;
+		}
+		IntellisenseItem[] merged = Arrays.copyOf(items, items.length + added.size());
+		for (int i = 0; i < added.size(); i++) {
+			merged[items.length + i] = added.get(i);
+		}
+		added.clear();
+		lastPattern = null;
+		// stable, so items with the same name keep the order they were added in
+		Arrays.sort(merged, (a, b) -> a.getName().compareTo(b.getName()));
+		items = merged;
+		names = new String[merged.length];
+		for (int i = 0; i < merged.length; i++) {
+			names[i] = merged[i].getName();
+		}
+	}
+}
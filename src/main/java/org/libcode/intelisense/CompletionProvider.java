@@ -0,0 +1,21 @@
+package org.libcode.intelisense;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Computes completions on demand, e.g. from a background analysis.
+ *
+ * The editor calls providers on a virtual thread when completion is
+ * requested and merges their results into the popup as they arrive, so a
+ * slow provider never holds up the others. The request is cancelled as soon
+ * as the caret moves or another key is pressed; long running providers
+ * should check {@link CompletionRequest#isCancelled()} now and then.
+ *
+ * @author hexaredecimal
+ */
+@FunctionalInterface
+public interface CompletionProvider {
+
+	CompletableFuture<List<IntellisenseItem>> complete(CompletionRequest request);
+}
@@ -0,0 +1,75 @@
+package org.libcode.intelisense;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.swing.text.Document;
+
+/**
+ * A completion request handed to every {@link CompletionProvider}. Providers
+ * run off the EDT and have to read the document under its read lock, e.g.
+ * with {@code AbstractDocument.render}.
+ *
+ * @author hexaredecimal
+ */
+public class CompletionRequest {
+
+	private final Document document;
+	private final int offset;
+	private final String prefix;
+	private final List<CompletableFuture<?>> futures = new CopyOnWriteArrayList<>();
+	private volatile boolean cancelled = false;
+
+	public CompletionRequest(Document document, int offset, String prefix) {
+		this.document = document;
+		this.offset = offset;
+		this.prefix = prefix;
+	}
+
+	public Document getDocument() {
+		return document;
+	}
+
+	/**
+	 * @return the caret offset completion was requested at
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return the word around the caret, may be empty
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Cancels the request and every future tracked for it.
+	 */
+	public void cancel() {
+		cancelled = true;
+		for (CompletableFuture<?> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	/**
+	 * Cancels {@code future} together with the request.
+	 *
+	 * @return the future
+	 */
+	public <T extends CompletableFuture<?>> T track(T future) {
+		if (future != null) {
+			futures.add(future);
+			if (cancelled) {
+				future.cancel(true);
+			}
+		}
+		return future;
+	}
+}
@@ -0,0 +1,222 @@
+package org.libcode.intelisense;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.ToIntFunction;
+
+/**
+ * How often and how recently completions were picked, used to rank the
+ * usual picks first.
+ *
+ * Every pick adds one to a score that halves every week, so both frequency
+ * and recency count and old habits fade. Once more than
+ * {@link #MAX_ENTRIES} names are known the weakest are dropped. The table
+ * can be kept in a small binary file that is read once at startup and
+ * written on a virtual thread after picks.
+ *
+ * Lookups read an immutable copy of the scores, decayed to the time of the
+ * last pick, which is replaced on every pick. A query takes no lock and
+ * decays them to its own time with one factor, see {@link #boosts}.
+ *
+ * @author hexaredecimal
+ */
+public class CompletionStats {
+
+	public static final int MAX_ENTRIES = 2000;
+
+	private static final int MAGIC = 0x43415354;
+	private static final int VERSION = 1;
+	private static final double HALF_LIFE_MILLIS = 7 * 24 * 60 * 60 * 1000.0;
+	private static final int MAX_BOOST = 30;
+
+	private static final class Usage {
+		double score;
+		long lastUsed;
+
+		Usage(double score, long lastUsed) {
+			this.score = score;
+			this.lastUsed = lastUsed;
+		}
+	}
+
+	// the scores decayed to time, never changed once published
+	private static final class Snapshot {
+		final long time;
+		final Map<String, Double> scores;
+
+		Snapshot(long time, Map<String, Double> scores) {
+			this.time = time;
+			this.scores = scores;
+		}
+	}
+
+	private final Map<String, Usage> usages = new HashMap<>();
+	private volatile Snapshot snapshot = new Snapshot(0, Map.of());
+	private final AtomicBoolean savePending = new AtomicBoolean();
+	// held from taking the snapshot until its file is in place, so saves can't overtake each other
+	private final Object saveLock = new Object();
+	private Path file;
+
+	/**
+	 * @return the stats stored in {@code file}, empty if there is no such
+	 * file. Picks are written back to it.
+	 */
+	public static CompletionStats load(Path file) throws IOException {
+		CompletionStats stats = new CompletionStats();
+		stats.file = file;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return stats;
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String name = in.readUTF();
+				double score = in.readFloat();
+				long lastUsed = in.readLong();
+				stats.usages.put(name, new Usage(score, lastUsed));
+			}
+		} catch (NoSuchFileException e) {
+			// nothing picked yet
+		}
+		stats.takeSnapshot(System.currentTimeMillis());
+		return stats;
+	}
+
+	/**
+	 * Records that {@code name} was picked.
+	 */
+	public synchronized void recordUsage(String name) {
+		long now = System.currentTimeMillis();
+		Usage usage = usages.get(name);
+		if (usage == null) {
+			usages.put(name, new Usage(1, now));
+			if (usages.size() > MAX_ENTRIES) {
+				prune(now);
+			}
+		} else {
+			usage.score = decayed(usage, now) + 1;
+			usage.lastUsed = now;
+		}
+		takeSnapshot(now);
+		scheduleSave();
+	}
+
+	/**
+	 * @return a bonus for the completion score of {@code name}, 0 if it was
+	 * never picked
+	 */
+	public int getBoost(String name) {
+		return boosts().applyAsInt(name);
+	}
+
+	/**
+	 * @return the bonus for the completion score of a name, as of now. Meant
+	 * to be taken once per query, the decay is only computed here.
+	 */
+	public ToIntFunction<String> boosts() {
+		Snapshot current = snapshot;
+		Map<String, Double> scores = current.scores;
+		if (scores.isEmpty()) {
+			return name -> 0;
+		}
+		double factor = Math.pow(0.5, Math.max(0, System.currentTimeMillis() - current.time) / HALF_LIFE_MILLIS);
+		return name -> {
+			Double score = scores.get(name);
+			if (score == null) {
+				return 0;
+			}
+			return (int) Math.min(MAX_BOOST, Math.round(8 * Math.log1p(score * factor) / Math.log(2)));
+		};
+	}
+
+	public synchronized int size() {
+		return usages.size();
+	}
+
+	private static double decayed(Usage usage, long now) {
+		long age = Math.max(0, now - usage.lastUsed);
+		return usage.score * Math.pow(0.5, age / HALF_LIFE_MILLIS);
+	}
+
+	private void takeSnapshot(long now) {
+		Map<String, Double> scores = new HashMap<>(usages.size() * 2);
+		for (Map.Entry<String, Usage> entry : usages.entrySet()) {
+			scores.put(entry.getKey(), decayed(entry.getValue(), now));
+		}
+		snapshot = new Snapshot(now, scores);
+	}
+
+	// drops the weakest quarter
+	private void prune(long now) {
+		List<Map.Entry<String, Usage>> entries = new ArrayList<>(usages.entrySet());
+		entries.sort((a, b) -> Double.compare(decayed(a.getValue(), now), decayed(b.getValue(), now)));
+		for (int i = 0; i < entries.size() / 4; i++) {
+			usages.remove(entries.get(i).getKey());
+		}
+	}
+
+	private void scheduleSave() {
+		if (file == null || !savePending.compareAndSet(false, true)) {
+			return;
+		}
+		Thread.startVirtualThread(() -> {
+			savePending.set(false);
+			try {
+				save();
+			} catch (IOException e) {
+				// the stats are only a ranking hint, keep going without them
+			}
+		});
+	}
+
+	/**
+	 * Writes the stats to their file, through a temporary file so a crash
+	 * never leaves a half written one behind.
+	 */
+	public void save() throws IOException {
+		Path target = file;
+		if (target == null) {
+			return;
+		}
+		Path parent = target.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+		synchronized (saveLock) {
+			List<String> names;
+			List<Usage> snapshot;
+			synchronized (this) {
+				names = new ArrayList<>(usages.keySet());
+				snapshot = new ArrayList<>(names.size());
+				for (String name : names) {
+					Usage usage = usages.get(name);
+					snapshot.add(new Usage(usage.score, usage.lastUsed));
+				}
+			}
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(names.size());
+				for (int i = 0; i < names.size(); i++) {
+					out.writeUTF(names.get(i));
+					out.writeFloat((float) snapshot.get(i).score);
+					out.writeLong(snapshot.get(i).lastUsed);
+				}
+			}
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+}
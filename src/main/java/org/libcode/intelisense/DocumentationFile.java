@@ -0,0 +1,61 @@
+package org.libcode.intelisense;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Supplier;
+
+/**
+ * UTF-8 documentation file mapped into memory. Catalog items point at their
+ * text by offset and length, and the text is only decoded when an item's
+ * documentation is shown, so the bodies never live on the heap.
+ *
+ * <pre>
+ * DocumentationFile docs = DocumentationFile.open(Path.of("stdlib.docs"));
+ * IntellisenseItem.lazy("print", "String -> ()", docs.at(offset, length));
+ * </pre>
+ *
+ * @author hexaredecimal
+ */
+public class DocumentationFile {
+
+	private final MappedByteBuffer buffer;
+
+	private DocumentationFile(MappedByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	public static DocumentationFile open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			// the mapping stays valid after the channel is closed
+			return new DocumentationFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	public long size() {
+		return buffer.capacity();
+	}
+
+	/**
+	 * @return the text of {@code length} bytes at {@code offset}
+	 */
+	public String read(int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > buffer.capacity()) {
+			throw new IndexOutOfBoundsException("offset " + offset + ", length " + length);
+		}
+		ByteBuffer slice = buffer.slice(offset, length);
+		return StandardCharsets.UTF_8.decode(slice).toString();
+	}
+
+	/**
+	 * @return a documentation source for an {@link IntellisenseItem} reading
+	 * {@code length} bytes at {@code offset}
+	 */
+	public Supplier<String> at(int offset, int length) {
+		return () -> read(offset, length);
+	}
+}
@@ -0,0 +1,119 @@
+package org.libcode.intelisense;
+
+/**
+ * Subsequence and CamelHump matching for completion, "gLN" matches
+ * "getLineNumber".
+ *
+ * The pattern has to appear in the candidate in order, ignoring case, and
+ * its first char has to be the first char of the candidate. That keeps
+ * results relevant and lets sorted sources only look at the names starting
+ * with that char.
+ *
+ * Matches on the start of a hump (an upper case letter after a lower case
+ * one, the first char after {@code _} or other separators, or the first
+ * char of the word) and runs of consecutive chars score higher, gaps and
+ * long candidates score lower. Scoring only walks the two strings and does
+ * not allocate.
+ *
+ * Since a candidate matching a pattern also matches every prefix of it, a
+ * longer pattern only ever needs to look at the matches of a shorter one.
+ *
+ * @author hexaredecimal
+ */
+public final class FuzzyMatcher {
+
+	public static final int NO_MATCH = Integer.MIN_VALUE;
+
+	private static final int MATCH = 1;
+	private static final int SAME_CASE = 1;
+	private static final int CONSECUTIVE = 5;
+	private static final int HUMP = 10;
+	private static final int EXACT = 20;
+
+	private FuzzyMatcher() {
+	}
+
+	/**
+	 * @return the score of {@code candidate} for {@code pattern}, higher is
+	 * better, or {@link #NO_MATCH}
+	 */
+	public static int score(String pattern, String candidate) {
+		if (pattern.length() > candidate.length()
+						|| (!pattern.isEmpty() && !same(pattern.charAt(0), candidate.charAt(0)))) {
+			return NO_MATCH;
+		}
+		int score = match(pattern, candidate, true);
+		if (score == NO_MATCH) {
+			// jumping ahead to a hump can skip chars a later one needed
+			score = match(pattern, candidate, false);
+		}
+		if (score != NO_MATCH && pattern.length() == candidate.length()) {
+			score += EXACT;
+		}
+		return score;
+	}
+
+	private static int match(String pattern, String candidate, boolean preferHumps) {
+		int score = 0;
+		int next = 0;
+		int previous = -2;
+		int length = candidate.length();
+		for (int p = 0; p < pattern.length(); p++) {
+			char pc = pattern.charAt(p);
+			int found = -1;
+			if (preferHumps && !(next < length && next == previous + 1 && same(candidate.charAt(next), pc))) {
+				for (int i = next; i < length; i++) {
+					if (isHump(candidate, i) && same(candidate.charAt(i), pc)) {
+						found = i;
+						break;
+					}
+				}
+			}
+			if (found < 0) {
+				for (int i = next; i < length; i++) {
+					if (same(candidate.charAt(i), pc)) {
+						found = i;
+						break;
+					}
+				}
+			}
+			if (found < 0) {
+				return NO_MATCH;
+			}
+
+			score += MATCH;
+			if (found == previous + 1) {
+				score += CONSECUTIVE;
+			}
+			if (isHump(candidate, found)) {
+				score += HUMP;
+			}
+			if (candidate.charAt(found) == pc) {
+				score += SAME_CASE;
+			}
+			score -= Math.min(found - next, 5);
+			previous = found;
+			next = found + 1;
+		}
+		return score - (length - pattern.length()) / 4;
+	}
+
+	private static boolean same(char a, char b) {
+		return a == b || Character.toLowerCase(a) == Character.toLowerCase(b);
+	}
+
+	private static boolean isHump(String s, int i) {
+		if (i == 0) {
+			return true;
+		}
+		char c = s.charAt(i);
+		char before = s.charAt(i - 1);
+		if (Character.isUpperCase(c)) {
+			return !Character.isUpperCase(before);
+		}
+		if (Character.isDigit(c)) {
+			return !Character.isDigit(before);
+		}
+		return !Character.isLetterOrDigit(before);
+	}
+}
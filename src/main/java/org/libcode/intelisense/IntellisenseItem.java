@@ -1,5 +1,7 @@
 package org.libcode.intelisense;
 
+import java.util.function.Supplier;
+
 /**
  *
  * @author hexaredecimal
@@ -9,11 +11,26 @@ public class IntellisenseItem {
 	private final String name;
 	private final String signature;
 	private final String documentation;
+	// fetches the documentation when it is shown, so large catalogs don't keep it in memory
+	private final Supplier<String> documentationSource;
 
 	public IntellisenseItem(String name, String signature, String documentation) {
+		this(name, signature, documentation, null);
+	}
+
+	private IntellisenseItem(String name, String signature, String documentation, Supplier<String> documentationSource) {
 		this.name = name;
 		this.signature = signature;
 		this.documentation = documentation;
+		this.documentationSource = documentationSource;
+	}
+
+	/**
+	 * @return an item whose documentation is fetched from
+	 * {@code documentation} each time it is shown
+	 */
+	public static IntellisenseItem lazy(String name, String signature, Supplier<String> documentation) {
+		return new IntellisenseItem(name, signature, null, documentation);
 	}
 
 	public String getName() {
@@ -25,6 +42,10 @@ public class IntellisenseItem {
 	}
 
 	public String getDocumentation() {
+		if (documentationSource != null) {
+			String doc = documentationSource.get();
+			return doc == null ? "" : doc;
+		}
 		return documentation;
 	}
 }
@@ -0,0 +1,134 @@
+package org.libcode.intelisense;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Keeps the {@code k} best scored items of a completion search in a bounded
+ * min-heap, so ranking a large catalog costs O(n log k) and nothing per
+ * candidate. Equal scores prefer the shorter name, then the smaller one.
+ * An optional bonus, e.g. from {@link CompletionStats}, is added to every
+ * score offered.
+ *
+ * @author hexaredecimal
+ */
+public final class TopK<T> {
+
+	private final int capacity;
+	private final Object[] items;
+	private final String[] names;
+	private final int[] scores;
+	private final ToIntFunction<String> bonus;
+	private int size = 0;
+
+	public TopK(int capacity) {
+		this(capacity, null);
+	}
+
+	public TopK(int capacity, ToIntFunction<String> bonus) {
+		this.capacity = Math.max(1, capacity);
+		this.bonus = bonus;
+		this.items = new Object[this.capacity];
+		this.names = new String[this.capacity];
+		this.scores = new int[this.capacity];
+	}
+
+	public void clear() {
+		Arrays.fill(items, 0, size, null);
+		Arrays.fill(names, 0, size, null);
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void offer(T item, String name, int score) {
+		if (bonus != null) {
+			score += bonus.applyAsInt(name);
+		}
+		if (size < capacity) {
+			items[size] = item;
+			names[size] = name;
+			scores[size] = score;
+			siftUp(size++);
+		} else if (better(score, name, scores[0], names[0])) {
+			items[0] = item;
+			names[0] = name;
+			scores[0] = score;
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * @return the items, best first
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> toList() {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> better(scores[a], names[a], scores[b], names[b]) ? -1
+						: better(scores[b], names[b], scores[a], names[a]) ? 1 : 0);
+		List<T> list = new ArrayList<>(size);
+		for (int i : order) {
+			list.add((T) items[i]);
+		}
+		return list;
+	}
+
+	private static boolean better(int score, String name, int otherScore, String otherName) {
+		if (score != otherScore) {
+			return score > otherScore;
+		}
+		if (name.length() != otherName.length()) {
+			return name.length() < otherName.length();
+		}
+		return name.compareTo(otherName) < 0;
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!better(scores[parent], names[parent], scores[i], names[i])) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int worst = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if (left < size && better(scores[worst], names[worst], scores[left], names[left])) {
+				worst = left;
+			}
+			if (right < size && better(scores[worst], names[worst], scores[right], names[right])) {
+				worst = right;
+			}
+			if (worst == i) {
+				return;
+			}
+			swap(i, worst);
+			i = worst;
+		}
+	}
+
+	private void swap(int a, int b) {
+		Object item = items[a];
+		items[a] = items[b];
+		items[b] = item;
+		String name = names[a];
+		names[a] = names[b];
+		names[b] = name;
+		int score = scores[a];
+		scores[a] = scores[b];
+		scores[b] = score;
+	}
+}
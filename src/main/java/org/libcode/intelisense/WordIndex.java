@@ -0,0 +1,259 @@
+package org.libcode.intelisense;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import org.libcode.text.DocumentText;
+
+/**
+ * Index of the words in a document for word completion.
+ *
+ * Every line keeps the words it contains, and a sorted map counts the
+ * occurrences of each word over the whole document. Edits only re-scan the
+ * lines they touch, and the words starting with a char are a range of the
+ * map, so completing costs the same in a ten line file as in a ten thousand
+ * line one.
+ *
+ * Keywords of the language can be added as well. They are offered whether
+ * the document contains them or not, and only once when it does.
+ *
+ * Fuzzy completion remembers the words that matched, when the pattern is
+ * extended only those and the words that appeared since are scored again.
+ *
+ * A word is a run of {@code [A-Za-z0-9_]}, the same as {@code \w+}.
+ *
+ * @author hexaredecimal
+ */
+public class WordIndex implements DocumentListener {
+
+	private static final String[] NO_WORDS = new String[0];
+	private static final int MAX_NEW_WORDS = 256;
+
+	private final Document doc;
+	private final TreeMap<String, int[]> counts = new TreeMap<>();
+	// each keyword counts as one more occurrence that is never removed
+	private final Set<String> keywords = new HashSet<>();
+	private final DocumentText text;
+	private String[][] lines = new String[64][];
+	private int size = 0;
+	private String lastPattern = null;
+	private String[] lastMatches = NO_WORDS;
+	private int lastMatchCount = 0;
+	// words added since the last fuzzy search, null once too many came in
+	private List<String> newWords = null;
+
+	public WordIndex(Document doc) {
+		this.doc = doc;
+		this.text = new DocumentText(doc, 0, 0);
+		Element root = doc.getDefaultRootElement();
+		insertLines(0, root.getElementCount());
+		doc.addDocumentListener(this);
+	}
+
+	/**
+	 * Adds words to offer even when the document does not contain them, e.g.
+	 * the highlighted keywords.
+	 */
+	public void addKeywords(Collection<String> words) {
+		for (String word : words) {
+			if (word != null && !word.isEmpty() && keywords.add(word)) {
+				addWord(word);
+			}
+		}
+	}
+
+	/**
+	 * Scores the words against {@code pattern} with {@link FuzzyMatcher} and
+	 * offers the matches to {@code top}, all but the pattern itself.
+	 */
+	public void fuzzyComplete(String pattern, TopK<String> top) {
+		boolean narrow = lastPattern != null && !lastPattern.isEmpty() && newWords != null
+						&& pattern.startsWith(lastPattern);
+		String[] matches = new String[16];
+		int matchCount = 0;
+		if (narrow) {
+			for (int i = 0; i < lastMatchCount; i++) {
+				matchCount = offer(pattern, lastMatches[i], top, matches, matchCount);
+				matches = grow(matches, matchCount);
+			}
+			for (String word : newWords) {
+				matchCount = offer(pattern, word, top, matches, matchCount);
+				matches = grow(matches, matchCount);
+			}
+		} else if (pattern.isEmpty()) {
+			for (String word : counts.keySet()) {
+				matchCount = offer(pattern, word, top, matches, matchCount);
+				matches = grow(matches, matchCount);
+			}
+		} else {
+			// every match starts with the first char of the pattern, in either case
+			char lower = Character.toLowerCase(pattern.charAt(0));
+			char upper = Character.toUpperCase(pattern.charAt(0));
+			for (char c : lower == upper ? new char[]{lower} : new char[]{lower, upper}) {
+				for (String word : counts.tailMap(String.valueOf(c), true).keySet()) {
+					if (word.charAt(0) != c) {
+						break;
+					}
+					matchCount = offer(pattern, word, top, matches, matchCount);
+					matches = grow(matches, matchCount);
+				}
+			}
+		}
+		lastPattern = pattern;
+		lastMatches = matches;
+		lastMatchCount = matchCount;
+		newWords = new ArrayList<>();
+	}
+
+	private int offer(String pattern, String word, TopK<String> top, String[] matches, int matchCount) {
+		// words can have gone since the last search
+		if (!counts.containsKey(word)) {
+			return matchCount;
+		}
+		int score = FuzzyMatcher.score(pattern, word);
+		if (score == FuzzyMatcher.NO_MATCH) {
+			return matchCount;
+		}
+		if (!word.equals(pattern)) {
+			top.offer(word, word, score);
+		}
+		matches[matchCount] = word;
+		return matchCount + 1;
+	}
+
+	private static String[] grow(String[] matches, int count) {
+		return count == matches.length ? Arrays.copyOf(matches, count * 2) : matches;
+	}
+
+	@Override
+	public void insertUpdate(DocumentEvent e) {
+		linesChanged(e);
+	}
+
+	@Override
+	public void removeUpdate(DocumentEvent e) {
+		linesChanged(e);
+	}
+
+	@Override
+	public void changedUpdate(DocumentEvent e) {
+		// attribute only, the text did not change
+	}
+
+	private void linesChanged(DocumentEvent e) {
+		Element root = doc.getDefaultRootElement();
+		DocumentEvent.ElementChange change = e.getChange(root);
+		if (change != null) {
+			int index = change.getIndex();
+			int removed = change.getChildrenRemoved().length;
+			for (int i = index; i < index + removed; i++) {
+				removeWords(lines[i]);
+			}
+			System.arraycopy(lines, index + removed, lines, index, size - index - removed);
+			size -= removed;
+			Arrays.fill(lines, size, size + removed, null);
+			insertLines(index, change.getChildrenAdded().length);
+		}
+		// A styled document changes the first or last line of a multi-line
+		// edit in place, those are not part of the element change
+		int first = root.getElementIndex(e.getOffset());
+		int last = root.getElementIndex(e.getType() == DocumentEvent.EventType.INSERT ? e.getOffset() + e.getLength() : e.getOffset());
+		rescan(first);
+		if (last != first) {
+			rescan(last);
+		}
+	}
+
+	private void rescan(int line) {
+		Element root = doc.getDefaultRootElement();
+		removeWords(lines[line]);
+		lines[line] = scan(root.getElement(line));
+	}
+
+	private void insertLines(int index, int count) {
+		if (size + count > lines.length) {
+			lines = Arrays.copyOf(lines, Math.max(size + count, lines.length * 2));
+		}
+		System.arraycopy(lines, index, lines, index + count, size - index);
+		size += count;
+		Element root = doc.getDefaultRootElement();
+		for (int i = index; i < index + count; i++) {
+			lines[i] = scan(root.getElement(i));
+		}
+	}
+
+	/**
+	 * Collects the words of a line and counts them. The strings are taken
+	 * from the map so every word is only held once.
+	 */
+	private String[] scan(Element line) {
+		int start = line.getStartOffset();
+		int end = Math.min(line.getEndOffset(), doc.getLength());
+		if (end <= start) {
+			return NO_WORDS;
+		}
+		DocumentText text = this.text.setRange(start, end);
+		String[] words = NO_WORDS;
+		int count = 0;
+		int last = text.length();
+		int i = 0;
+		while (i < last) {
+			if (!isWordChar(text.charAt(i))) {
+				i++;
+				continue;
+			}
+			int wordStart = i;
+			while (i < last && isWordChar(text.charAt(i))) {
+				i++;
+			}
+			String word = addWord(text.subSequence(wordStart, i).toString());
+			if (count == words.length) {
+				words = Arrays.copyOf(words, Math.max(4, count * 2));
+			}
+			words[count++] = word;
+		}
+		return count == words.length ? words : Arrays.copyOf(words, count);
+	}
+
+	private String addWord(String word) {
+		Map.Entry<String, int[]> entry = counts.ceilingEntry(word);
+		if (entry != null && entry.getKey().equals(word)) {
+			entry.getValue()[0]++;
+			return entry.getKey();
+		}
+		counts.put(word, new int[]{1});
+		if (newWords != null) {
+			if (newWords.size() < MAX_NEW_WORDS) {
+				newWords.add(word);
+			} else {
+				newWords = null;
+			}
+		}
+		return word;
+	}
+
+	private void removeWords(String[] words) {
+		if (words == null) {
+			return;
+		}
+		for (String word : words) {
+			int[] count = counts.get(word);
+			if (count != null && --count[0] == 0) {
+				counts.remove(word);
+			}
+		}
+	}
+
+	private static boolean isWordChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+}
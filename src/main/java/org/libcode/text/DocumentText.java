@@ -0,0 +1,149 @@
+package org.libcode.text;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * A range of a document as a {@link CharSequence}, without copying it.
+ *
+ * The chars are read through a {@link Segment} with partial returns, which
+ * hands out the content array of the document itself a chunk at a time, up
+ * to the gap of the gap buffer. Scanning forwards or backwards only fetches
+ * a new chunk when it runs off the current one, so a scan over megabytes
+ * costs a handful of calls and no copies.
+ *
+ * The text must not change while it is read, use it on the EDT or under the
+ * document read lock. {@link #setRange} moves the same instance to another
+ * range.
+ *
+ * @author hexaredecimal
+ */
+public final class DocumentText implements CharSequence {
+
+	private static final int BACKWARD_CHUNK = 256;
+
+	private final Document doc;
+	private final Segment segment = new Segment();
+	private int start;
+	private int end;
+	// document offsets held by the segment
+	private int chunkStart = 0;
+	private int chunkEnd = 0;
+
+	/**
+	 * The whole document as it is now.
+	 */
+	public DocumentText(Document doc) {
+		this(doc, 0, doc.getLength());
+	}
+
+	public DocumentText(Document doc, int start, int end) {
+		this.doc = doc;
+		segment.setPartialReturn(true);
+		setRange(start, end);
+	}
+
+	/**
+	 * Moves this sequence to the document range {@code [start, end)} and
+	 * drops the chunk it holds.
+	 */
+	public DocumentText setRange(int start, int end) {
+		this.start = start;
+		this.end = end;
+		chunkStart = 0;
+		chunkEnd = 0;
+		return this;
+	}
+
+	public int getStartOffset() {
+		return start;
+	}
+
+	public int getEndOffset() {
+		return end;
+	}
+
+	@Override
+	public int length() {
+		return end - start;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= end - start) {
+			throw new IndexOutOfBoundsException(index);
+		}
+		int offset = start + index;
+		if (offset < chunkStart || offset >= chunkEnd) {
+			load(offset);
+		}
+		return segment.array[segment.offset + offset - chunkStart];
+	}
+
+	/**
+	 * @return true if {@code s} occurs at {@code index}
+	 */
+	public boolean startsWith(String s, int index) {
+		int length = s.length();
+		if (index < 0 || index + length > end - start) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (charAt(index + i) != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the first index at or after {@code from} where {@code s}
+	 * occurs, or -1
+	 */
+	public int indexOf(String s, int from) {
+		for (int i = Math.max(0, from); i + s.length() <= end - start; i++) {
+			if (startsWith(s, i)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public CharSequence subSequence(int from, int to) {
+		if (from < 0 || to > end - start || from > to) {
+			throw new IndexOutOfBoundsException();
+		}
+		return new DocumentText(doc, start + from, start + to);
+	}
+
+	@Override
+	public String toString() {
+		try {
+			return doc.getText(start, end - start);
+		} catch (BadLocationException e) {
+			throw new IndexOutOfBoundsException(e.getMessage());
+		}
+	}
+
+	private void load(int offset) {
+		// going backwards, take the chunk that ends at offset
+		int from = offset < chunkStart ? Math.max(start, offset - BACKWARD_CHUNK + 1) : offset;
+		fetch(from);
+		if (offset >= chunkEnd) {
+			// the gap lies in between
+			fetch(offset);
+		}
+	}
+
+	private void fetch(int from) {
+		try {
+			doc.getText(from, end - from, segment);
+		} catch (BadLocationException e) {
+			throw new IndexOutOfBoundsException(e.getMessage());
+		}
+		chunkStart = from;
+		chunkEnd = from + segment.count;
+	}
+}
@@ -2,8 +2,6 @@ package org.libcode.ui;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
-import java.awt.Container;
-import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.GradientPaint;
@@ -13,22 +11,25 @@ import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
 import javax.swing.BorderFactory;
-import javax.swing.BoxLayout;
 import javax.swing.JLabel;
-import javax.swing.JMenuItem;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
-import javax.swing.JScrollPane;
-import javax.swing.JSeparator;
 import javax.swing.JTextArea;
 import javax.swing.text.Element;
 import javax.swing.text.Position;
@@ -36,23 +37,39 @@ import javax.swing.text.View;
 import javax.swing.JTextPane;
 import javax.swing.SwingUtilities;
 import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.text.AbstractDocument;
 import javax.swing.text.BadLocationException;
+import javax.swing.text.Segment;
 import javax.swing.text.Style;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.StyleContext;
 import javax.swing.text.StyledDocument;
-import javax.swing.text.Utilities;
 import javax.swing.undo.UndoManager;
 import javax.swing.undo.UndoableEdit;
 import org.libcode.colors.Colors;
+import org.libcode.intelisense.CompletionCatalog;
+import org.libcode.intelisense.CompletionProvider;
+import org.libcode.intelisense.CompletionRequest;
+import org.libcode.intelisense.CompletionStats;
+import org.libcode.intelisense.FuzzyMatcher;
 import org.libcode.intelisense.IntellisenseItem;
+import org.libcode.intelisense.TopK;
+import org.libcode.intelisense.WordIndex;
+import org.libcode.fold.FoldDelta;
+import org.libcode.fold.FoldModel;
+import org.libcode.fold.FoldProvider;
 import org.libcode.fold.FoldRegion;
+import org.libcode.fold.FoldTriggerIndex;
 import org.libcode.fold.FoldingEditorKit;
 import org.libcode.fold.view.FoldingParagraphView;
+import org.libcode.highlight.Lexer;
+import org.libcode.highlight.SyntaxHighlighter;
+import org.libcode.highlight.TokenCache;
 import org.libcode.layers.Layer;
 import org.libcode.layers.LayerIndex;
 import org.libcode.layers.LayerRender;
+import org.libcode.text.DocumentText;
 
 /**
  *
@@ -62,12 +79,31 @@ public final class CodePane extends JTextPane {
 
 	private final Set<Integer> errorLines = new HashSet<>();
 	private final Map<Integer, String> errorMessages = new HashMap<>();
-	private final HashMap<List<String>, Style> highlightTable = new HashMap<>();
-
-	private final List<IntellisenseItem> docCompletions = new ArrayList<>();
-
-	private JPopupMenu completionMenu;
-	private int selectedSuggestionIndex = 0;
+	private final HashMap<List<String>, Style> highlightTable = new LinkedHashMap<>();
+
+	private static final int MAX_DOC_SUGGESTIONS = 50;
+	private static final int MAX_WORD_SUGGESTIONS = 50;
+	private final CompletionCatalog docCompletions = new CompletionCatalog();
+	private CompletionStats completionStats = new CompletionStats();
+	private final List<CompletionProvider> completionProviders = new CopyOnWriteArrayList<>();
+	private final ExecutorService completionExecutor = Executors.newVirtualThreadPerTaskExecutor();
+	private CompletionRequest completionRequest;
+	private List<IntellisenseItem> providedCompletions = new ArrayList<>();
+
+	private final CompletionPopup completionPopup;
+	// reused by the keystroke handlers, only touched on the EDT
+	private final Segment caretSegment = new Segment();
+	private static final int DOC_PANEL_CACHE_SIZE = 32;
+	private static final String DOC_BACKGROUND = "docBackground";
+	// rendered documentation of recently shown items
+	private final Map<IntellisenseItem, JPanel> docPanelCache = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<IntellisenseItem, JPanel> eldest) {
+			return size() > DOC_PANEL_CACHE_SIZE;
+		}
+	};
+	private int docWordStart = 0;
+	private int docWordEnd = 0;
 	private final Font editorFont = new Font("Monospaced", Font.PLAIN, 14);
 	private int currentLine = 0;
 	private UndoManager undoManager = new UndoManager();
@@ -75,6 +111,19 @@ public final class CodePane extends JTextPane {
 	private List<Layer> layers;
 	private boolean autoFoldingEnabled = true;
 	private final java.util.Map<String, String> foldTriggerPairs = new java.util.LinkedHashMap<>();
+	private final SyntaxHighlighter syntaxHighlighter;
+	private final WordIndex wordIndex;
+	private final FoldModel foldModel;
+	private final FoldTriggerIndex foldTriggers;
+	private int foldTriggerChanges = -1;
+	private boolean foldPassRunning = false;
+	private boolean foldPassPending = false;
+	private long foldMatchedVersion = -1;
+	// collapsed start lines to restore once the regions are up to date
+	private int[] restoredCollapsedLines = null;
+	// computes the regions instead of the trigger pairs when set
+	private FoldProvider foldProvider = null;
+	private boolean foldUpdateScheduled = false;
 
 
 	public CodePane() {
@@ -82,7 +131,26 @@ public final class CodePane extends JTextPane {
 		setOpaque(false);
 		layers = new ArrayList<>();
 		setEditorKit(new FoldingEditorKit(this));
-		setupCompletionMenu();
+		syntaxHighlighter = new SyntaxHighlighter(this, highlightTable);
+		wordIndex = new WordIndex(getDocument());
+		foldModel = new FoldModel(getDocument());
+		foldTriggers = new FoldTriggerIndex(getDocument());
+		getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				foldLinesChanged(e);
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				foldLinesChanged(e);
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+			}
+		});
+		completionPopup = new CompletionPopup(this, this::getCompletionPanel);
 		setupContextMenu();
 		if (autoFoldingEnabled) {
 			SwingUtilities.invokeLater(this::rebuildFoldRegions);
@@ -110,6 +178,9 @@ public final class CodePane extends JTextPane {
 		addCaretListener(e -> {
 			try {
 				int caretPos = e.getDot();
+				if (completionRequest != null && caretPos != completionRequest.getOffset()) {
+					cancelCompletions();
+				}
 				int line = getDocument().getDefaultRootElement().getElementIndex(caretPos);
 				if (line != currentLine) {
 					currentLine = line;
@@ -125,23 +196,27 @@ public final class CodePane extends JTextPane {
 		addKeyListener(new KeyAdapter() {
 			@Override
 			public void keyPressed(KeyEvent e) {
+				switch (e.getKeyCode()) {
+					case KeyEvent.VK_UP, KeyEvent.VK_DOWN, KeyEvent.VK_CONTROL, KeyEvent.VK_SHIFT, KeyEvent.VK_ALT -> {
+					}
+					default -> cancelCompletions();
+				}
 				if (e.isControlDown() && e.getKeyCode() == KeyEvent.VK_SPACE) {
 					showDocCompletion();
 					e.consume();
-				} else if (completionMenu.isVisible()) {
+				} else if (completionPopup.isVisible()) {
 					handleCompletionNavigation(e);
 				} else if (e.getKeyCode() == KeyEvent.VK_ENTER) {
 					try {
 						int caretPos = getCaretPosition();
-						int lineStart = Utilities.getRowStart(CodePane.this, caretPos);
-						String lineText = getText(lineStart, caretPos - lineStart);
+						Segment line = lineTextBefore(caretPos);
 
 						// Match leading whitespace
-						java.util.regex.Matcher m = java.util.regex.Pattern.compile("^\\s*").matcher(lineText);
-						String indent = "";
-						if (m.find()) {
-							indent = m.group();
+						int indentEnd = line.offset;
+						while (indentEnd < line.offset + line.count && isSpace(line.array[indentEnd])) {
+							indentEnd++;
 						}
+						String indent = new String(line.array, line.offset, indentEnd - line.offset);
 
 						// Insert newline + indent
 						getDocument().insertString(caretPos, "\n" + indent, null);
@@ -163,9 +238,8 @@ public final class CodePane extends JTextPane {
 				if (Character.isLetterOrDigit(e.getKeyChar())) {
 					showWordCompletion();
 				} else {
-					completionMenu.setVisible(false);
+					hideCompletions();
 				}
-				highlightSyntax();
 			}
 
 		});
@@ -214,7 +288,7 @@ public final class CodePane extends JTextPane {
 		addLayer(LayerIndex.TOP_FREE_LAYER--, (w, h, g2) -> {
 			g2.setFont(getFont());
 			final FontMetrics fm2 = getFontMetrics(getFont());
-			for (FoldRegion fr : foldRegions) {
+			for (FoldRegion fr : foldModel.getRegions()) {
 				if (!fr.collapsed) {
 					continue;
 				}
@@ -284,6 +358,79 @@ public final class CodePane extends JTextPane {
 		StyleConstants.setBold(style, bold);
 		StyleConstants.setItalic(style, italic);
 		highlightTable.put(words, style);
+		syntaxHighlighter.keywordsChanged();
+		wordIndex.addKeywords(words);
+	}
+
+	public void setTokenStyle(int tokenType, Color color, boolean bold, boolean italic) {
+		StyledDocument doc = getStyledDocument();
+		Style defaultStyle = StyleContext.getDefaultStyleContext().getStyle(StyleContext.DEFAULT_STYLE);
+		var style = doc.addStyle("Token_" + tokenType, defaultStyle);
+		StyleConstants.setForeground(style, color);
+		StyleConstants.setBold(style, bold);
+		StyleConstants.setItalic(style, italic);
+		syntaxHighlighter.setTokenStyle(tokenType, style);
+	}
+
+	public void setLexer(Lexer lexer) {
+		syntaxHighlighter.setLexer(lexer);
+	}
+
+	public Lexer getLexer() {
+		return syntaxHighlighter.getLexer();
+	}
+
+	public SyntaxHighlighter getSyntaxHighlighter() {
+		return syntaxHighlighter;
+	}
+
+	public void setTokenCache(TokenCache cache) {
+		syntaxHighlighter.setTokenCache(cache);
+	}
+
+	public TokenCache getTokenCache() {
+		return syntaxHighlighter.getTokenCache();
+	}
+
+	public void setSemanticTokens(int[] data) {
+		syntaxHighlighter.setSemanticTokens(data);
+	}
+
+	public void editSemanticTokens(int start, int deleteCount, int[] data) {
+		syntaxHighlighter.editSemanticTokens(start, deleteCount, data);
+	}
+
+	public void clearSemanticTokens() {
+		syntaxHighlighter.clearSemanticTokens();
+	}
+
+	public void setPaintTimeHighlighting(boolean enabled) {
+		syntaxHighlighter.setPaintTimeMode(enabled);
+	}
+
+	public boolean isPaintTimeHighlighting() {
+		return syntaxHighlighter.isPaintTimeMode();
+	}
+
+	public void setViewportHighlighting(boolean enabled, int marginLines, int maxStyledLines) {
+		updateVisibleLines();
+		syntaxHighlighter.setViewportMode(enabled, marginLines, maxStyledLines);
+	}
+
+	public boolean isViewportHighlighting() {
+		return syntaxHighlighter.isViewportMode();
+	}
+
+	/**
+	 * Passes the visible line range on to the highlighter, called by the
+	 * enclosing viewport whenever it scrolls or resizes.
+	 */
+	public void updateVisibleLines() {
+		Rectangle visible = getVisibleRect();
+		Element root = getDocument().getDefaultRootElement();
+		int first = root.getElementIndex(Math.max(0, viewToModel2D(new Point(0, visible.y))));
+		int last = root.getElementIndex(Math.max(0, viewToModel2D(new Point(0, visible.y + visible.height))));
+		syntaxHighlighter.setVisibleLines(first, last);
 	}
 
 	public void addCompletions(List<IntellisenseItem> completions) {
@@ -294,6 +441,26 @@ public final class CodePane extends JTextPane {
 		docCompletions.add(completion);
 	}
 
+	/**
+	 * Ranks completions by how often and how recently they were picked,
+	 * keeping the statistics in {@code file}.
+	 */
+	public void setCompletionStatsFile(Path file) throws IOException {
+		completionStats = CompletionStats.load(file);
+	}
+
+	public CompletionStats getCompletionStats() {
+		return completionStats;
+	}
+
+	public void addCompletionProvider(CompletionProvider provider) {
+		completionProviders.add(provider);
+	}
+
+	public void removeCompletionProvider(CompletionProvider provider) {
+		completionProviders.remove(provider);
+	}
+
 	public int getLine() {
 		int caretPos = getCaretPosition();
 		int line = getDocument().getDefaultRootElement().getElementIndex(caretPos);
@@ -367,28 +534,25 @@ public final class CodePane extends JTextPane {
 	}
 
 	private void handleCompletionNavigation(KeyEvent e) {
-		int suggestionCount = completionMenu.getComponentCount();
-		if (suggestionCount == 0) {
+		if (completionPopup.getSuggestionCount() == 0 && e.getKeyCode() != KeyEvent.VK_ESCAPE) {
 			return;
 		}
 
 		switch (e.getKeyCode()) {
 			case KeyEvent.VK_DOWN:
-				selectedSuggestionIndex = (selectedSuggestionIndex + 1) % suggestionCount;
-				updateSuggestionHighlight();
+				completionPopup.selectNext();
 				e.consume();
 				break;
 			case KeyEvent.VK_UP:
-				selectedSuggestionIndex = (selectedSuggestionIndex - 1 + suggestionCount) % suggestionCount;
-				updateSuggestionHighlight();
+				completionPopup.selectPrevious();
 				e.consume();
 				break;
 			case KeyEvent.VK_ENTER:
-				((JMenuItem) completionMenu.getComponent(selectedSuggestionIndex)).doClick();
+				completionPopup.acceptSelected();
 				e.consume();
 				break;
 			case KeyEvent.VK_ESCAPE:
-				completionMenu.setVisible(false);
+				hideCompletions();
 				e.consume();
 				break;
 		}
@@ -416,23 +580,6 @@ public final class CodePane extends JTextPane {
 		repaint();
 	}
 
-	private void updateSuggestionHighlight() {
-		for (int i = 0; i < completionMenu.getComponentCount(); i++) {
-			JMenuItem item = (JMenuItem) completionMenu.getComponent(i);
-			item.setBackground(i == selectedSuggestionIndex ? new Color(210, 230, 255) : null);
-		}
-	}
-
-	private List<String> getAllWords(String text) {
-		List<String> words = new ArrayList<>();
-		// \b ensures word boundaries; \w+ matches [A-Za-z0-9_]+ only
-		java.util.regex.Matcher matcher = java.util.regex.Pattern.compile("\\b\\w+\\b").matcher(text);
-		while (matcher.find()) {
-			words.add(matcher.group());
-		}
-		return words;
-	}
-
 
 	@Override
 	protected void paintComponent(Graphics g) {
@@ -450,107 +597,79 @@ public final class CodePane extends JTextPane {
 		super.paintComponent(g);
 	}
 
-	private void highlightSyntax() {
-		StyledDocument doc = getStyledDocument();
-		String text;
-		try {
-			text = doc.getText(0, doc.getLength());
-		} catch (BadLocationException e) {
-			return;
-		}
+	/**
+	 * @return the text from the start of the line of {@code offset} up to
+	 * {@code offset}, straight from the document content where possible. The
+	 * segment is shared, it is only valid until the next call.
+	 */
+	private Segment lineTextBefore(int offset) throws BadLocationException {
+		Element root = getDocument().getDefaultRootElement();
+		int lineStart = root.getElement(root.getElementIndex(offset)).getStartOffset();
+		getDocument().getText(lineStart, offset - lineStart, caretSegment);
+		return caretSegment;
+	}
 
-		Style defaultStyle = StyleContext.getDefaultStyleContext().getStyle(StyleContext.DEFAULT_STYLE);
-		doc.setCharacterAttributes(0, text.length(), defaultStyle, true);
-
-		for (var kv: highlightTable.entrySet()) {
-			for (String keyword : kv.getKey()) {
-				int pos = 0;
-				while ((pos = text.indexOf(keyword, pos)) >= 0) {
-					if (isWholeWord(text, pos, keyword.length())) {
-						doc.setCharacterAttributes(pos, keyword.length(), kv.getValue(), true);
-					}
-					pos += keyword.length();
-				}
-			}
-		}
+	/**
+	 * @return the text from {@code offset} up to the end of its line,
+	 * without the newline. Shares the segment of {@link #lineTextBefore}.
+	 */
+	private Segment lineTextAfter(int offset) throws BadLocationException {
+		Element root = getDocument().getDefaultRootElement();
+		int lineEnd = Math.min(root.getElement(root.getElementIndex(offset)).getEndOffset(), getDocument().getLength());
+		getDocument().getText(offset, Math.max(0, lineEnd - offset), caretSegment);
+		return caretSegment;
 	}
 
-	private boolean isWholeWord(String text, int start, int length) {
-		char before = (start == 0) ? ' ' : text.charAt(start - 1);
-		char after = (start + length >= text.length()) ? ' ' : text.charAt(start + length);
-		return !Character.isLetterOrDigit(before) && !Character.isLetterOrDigit(after);
+	// \s of java.util.regex
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
 	}
 
-	private void setupCompletionMenu() {
-		completionMenu = new JPopupMenu();
-		completionMenu.setFocusable(false);
+	// \w of java.util.regex
+	private static boolean isWordChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
 	}
 
-	private String getCurrentWord(int caretPosition) throws BadLocationException {
-		String text = getText(0, caretPosition);
-		java.util.regex.Matcher matcher = java.util.regex.Pattern.compile("\\b\\w+$").matcher(text);
-		if (matcher.find()) {
-			return matcher.group();
-		}
-		return "";
+	private static boolean isIdentifierChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
 	}
 
 	private void showWordCompletion() {
 		try {
 			int caretPosition = getCaretPosition();
-			String text = getText(0, caretPosition);
-			java.util.regex.Matcher matcher = java.util.regex.Pattern.compile("\\b\\w+$").matcher(text);
-			int wordStart = caretPosition;
-			String currentWord = "";
-			if (matcher.find()) {
-				currentWord = matcher.group();
-				wordStart = matcher.start();
+			Segment line = lineTextBefore(caretPosition);
+			int end = line.offset + line.count;
+			int start = end;
+			while (start > line.offset && isWordChar(line.array[start - 1])) {
+				start--;
 			}
+			int wordStart = caretPosition - (end - start);
+			String currentWord = new String(line.array, start, end - start);
 
-			List<String> suggestions = new ArrayList<>();
 			final String cw = currentWord;
-			for (var keywords : highlightTable.keySet()) {
-				suggestions.addAll(keywords.stream().filter(k -> k.startsWith(cw)).collect(Collectors.toList()));
-			}
-			suggestions.addAll(
-							getAllWords(getText()).stream()
-											.filter(w -> w.startsWith(cw) && !w.equals(cw))
-											.distinct()
-											.collect(Collectors.toList())
-			);
-
-			if (!suggestions.isEmpty()) {
-				setupContextMenu();
-				completionMenu.removeAll();
-				final int finalWordStart = wordStart;
-				final int finalCaretPosition = caretPosition;
-				for (String suggestion : suggestions) {
-					JMenuItem item = new JMenuItem(suggestion);
-					item.addActionListener(ae -> {
-						try {
-							getDocument().remove(finalWordStart, finalCaretPosition - finalWordStart);
-							getDocument().insertString(finalWordStart, suggestion, null);
-							setCaretPosition(finalWordStart + suggestion.length());
-						} catch (BadLocationException ex) {
-							ex.printStackTrace();
-						}
-						completionMenu.setVisible(false);
-					});
-					completionMenu.add(item);
-				}
-				Point p = getUI().modelToView(this, caretPosition).getLocation();
-				completionMenu.show(this, p.x, p.y + getFontMetrics(getFont()).getHeight());
-				selectedSuggestionIndex = 0;
-				updateSuggestionHighlight();
-			} else {
-				completionMenu.setVisible(false);
-			}
+			TopK<String> top = new TopK<>(MAX_WORD_SUGGESTIONS, completionStats.boosts());
+			wordIndex.fuzzyComplete(cw, top);
+
+			final int finalWordStart = wordStart;
+			final int finalCaretPosition = caretPosition;
+			completionPopup.show(top.toList(), caretPosition,
+							suggestion -> replaceWord(finalWordStart, finalCaretPosition, suggestion.toString()));
 		} catch (BadLocationException ex) {
 			ex.printStackTrace();
 		}
 	}
 
 	private JPanel getCompletionPanel(IntellisenseItem suggestion) {
+		JPanel panel = docPanelCache.get(suggestion);
+		if (panel == null || !getBackground().equals(panel.getClientProperty(DOC_BACKGROUND))) {
+			panel = createCompletionPanel(suggestion);
+			panel.putClientProperty(DOC_BACKGROUND, getBackground());
+			docPanelCache.put(suggestion, panel);
+		}
+		return panel;
+	}
+
+	private JPanel createCompletionPanel(IntellisenseItem suggestion) {
 		JPanel panel = new JPanel(new BorderLayout());
 		panel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
 		JLabel nameLabel = new JLabel("<html><b>" + suggestion.getName() + "</b></html>");
@@ -569,134 +688,129 @@ public final class CodePane extends JTextPane {
 	}
 
 	private void showDocCompletion() {
+		int caretPosition = getCaretPosition();
+		StringBuilder word = new StringBuilder();
+		int wordStart = caretPosition;
+		int wordEnd = caretPosition;
 		try {
-			int caretPosition = getCaretPosition();
-			String text = getText();
-
-			int wordStart = caretPosition;
-			while (wordStart > 0) {
-				char c = text.charAt(wordStart - 1);
-				if (!Character.isLetterOrDigit(c) && c != '_') {
-					break; // stop at non-identifier
-				}
-				wordStart--;
+			Segment before = lineTextBefore(caretPosition);
+			int start = before.offset + before.count;
+			while (start > before.offset && isIdentifierChar(before.array[start - 1])) {
+				start--;
 			}
+			wordStart -= before.offset + before.count - start;
+			word.append(before.array, start, caretPosition - wordStart);
 
-			int wordEnd = caretPosition;
-			while (wordEnd < text.length()) {
-				char c = text.charAt(wordEnd);
-				if (!Character.isLetterOrDigit(c) && c != '_') {
-					break;
-				}
-				wordEnd++;
+			Segment after = lineTextAfter(caretPosition);
+			int end = after.offset;
+			while (end < after.offset + after.count && isIdentifierChar(after.array[end])) {
+				end++;
 			}
+			wordEnd += end - after.offset;
+			word.append(after.array, after.offset, wordEnd - caretPosition);
+		} catch (BadLocationException ex) {
+			return;
+		}
 
-			if (wordStart >= wordEnd) {
-				completionMenu.setVisible(false);
-				return;
-			}
+		String currentWord = word.toString();
+		docWordStart = wordStart;
+		docWordEnd = wordEnd;
+		if (wordStart >= wordEnd) {
+			hideCompletions();
+			return;
+		}
+		requestCompletions(currentWord, caretPosition);
+		showDocSuggestions(currentWord, caretPosition, rankDocSuggestions(currentWord, List.of()));
+	}
 
-			String currentWord = text.substring(wordStart, wordEnd);
-			List<IntellisenseItem> _suggestions = docCompletions.stream()
-							.filter(c -> c.getName().startsWith(currentWord))
-							.sorted((c1, c2) -> {
-								if (c1.getName().equals(currentWord)) {
-									return -1;
-								}
-								if (c2.getName().equals(currentWord)) {
-									return 1;
-								}
-								return c1.getName().compareTo(c2.getName());
-							})
-							.collect(Collectors.toList());
-
-			List<IntellisenseItem> suggestions = new ArrayList<>(_suggestions);
-			for (var suggestion : suggestions) {
-				if (currentWord.compareTo(suggestion.getName()) == 0) {
-					suggestions.clear();
-					suggestions.add(suggestion);
-					break;
-				}
-			}
+	/**
+	 * Asks every completion provider for items on a virtual thread. Their
+	 * results are merged into the popup as they arrive, until the caret moves
+	 * or another key is pressed.
+	 */
+	private void requestCompletions(String word, int caretPosition) {
+		cancelCompletions();
+		if (completionProviders.isEmpty()) {
+			return;
+		}
+		CompletionRequest request = new CompletionRequest(getDocument(), caretPosition, word);
+		completionRequest = request;
+		providedCompletions = new ArrayList<>();
+		for (CompletionProvider provider : completionProviders) {
+			CompletableFuture<List<IntellisenseItem>> future = CompletableFuture
+							.supplyAsync(() -> request.track(provider.complete(request)), completionExecutor)
+							.thenCompose(items -> items);
+			request.track(future);
+			future.thenAccept(items -> SwingUtilities.invokeLater(() -> completionsArrived(request, items)));
+		}
+	}
 
-			if (!suggestions.isEmpty()) {
-				setupCompletionMenu();
-				completionMenu.removeAll();
-
-				if (suggestions.size() == 1 && !currentWord.equals(suggestions.getFirst().getName())) {
-					var suggestion = suggestions.getFirst();
-					var menuItem = new JMenuItem(suggestion.getName());
-					menuItem.addActionListener(action -> {
-						try {
-							setupCompletionMenu();
-							completionMenu.removeAll();
-							completionMenu.setLayout(new BorderLayout());
-							completionMenu.add(getCompletionPanel(suggestion));
-							Point p = getUI().modelToView(this, caretPosition).getLocation();
-							completionMenu.show(this, p.x, p.y + getFontMetrics(getFont()).getHeight());
-						} catch (BadLocationException exception) {
-							return;
-						}
-					});
-					completionMenu.add(menuItem);
-					Point p = getUI().modelToView(this, caretPosition).getLocation();
-					completionMenu.show(this, p.x, p.y + getFontMetrics(getFont()).getHeight());
-					return;
-				} else if (suggestions.size() == 1) {
-					completionMenu.setLayout(new BorderLayout());
-					var suggestion = suggestions.getFirst();
-					completionMenu.add(getCompletionPanel(suggestion));
-					Point p = getUI().modelToView(this, caretPosition).getLocation();
-					completionMenu.show(this, p.x, p.y + getFontMetrics(getFont()).getHeight());
-					return;
-				} else {
-					completionMenu.setLayout(new BorderLayout());
-					JPanel wrapper = new JPanel();
-					wrapper.setLayout(new BoxLayout(wrapper, BoxLayout.Y_AXIS));
-					var size = suggestions.size();
-					for (int i = 0; i < size; i++) {
-						var suggestion = suggestions.get(i);
-						wrapper.add(getCompletionPanel(suggestion));
-						if (i < size - 1) {
-							wrapper.add(new JSeparator());
-						}
-					}
-					wrapper.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+	private void completionsArrived(CompletionRequest request, List<IntellisenseItem> items) {
+		if (request != completionRequest || request.isCancelled() || items == null || items.isEmpty()) {
+			return;
+		}
+		providedCompletions.addAll(items);
+		showDocSuggestions(request.getPrefix(), request.getOffset(), rankDocSuggestions(request.getPrefix(), providedCompletions));
+	}
 
-					wrapper.setPreferredSize(new Dimension(300, suggestions.size() * 80)); // adjust 80 to panel height
+	private void cancelCompletions() {
+		if (completionRequest != null) {
+			completionRequest.cancel();
+			completionRequest = null;
+		}
+	}
 
-					completionMenu.removeAll();
-					completionMenu.add(wrapper);
-					Point p = getUI().modelToView(this, caretPosition).getLocation();
-					completionMenu.show(this, p.x, p.y + getFontMetrics(getFont()).getHeight());
-					return;
-				}
+	// a popup closed by the user must not be opened again by late results
+	private void hideCompletions() {
+		cancelCompletions();
+		completionPopup.hide();
+	}
 
-			} else {
-				completionMenu.setVisible(false);
+	private List<IntellisenseItem> rankDocSuggestions(String word, List<IntellisenseItem> provided) {
+		IntellisenseItem exact = word.isEmpty() ? null : docCompletions.get(word);
+		for (int i = 0; exact == null && i < provided.size(); i++) {
+			if (provided.get(i).getName().equals(word)) {
+				exact = provided.get(i);
 			}
+		}
+		if (exact != null) {
+			return List.of(exact);
+		}
+		TopK<IntellisenseItem> top = new TopK<>(MAX_DOC_SUGGESTIONS, completionStats.boosts());
+		if (!word.isEmpty()) {
+			docCompletions.fuzzyFind(word, top);
+		}
+		for (IntellisenseItem item : provided) {
+			// providers know their context, keep what they return even if it doesn't match
+			int score = FuzzyMatcher.score(word, item.getName());
+			top.offer(item, item.getName(), score == FuzzyMatcher.NO_MATCH ? Integer.MIN_VALUE + 1 : score);
+		}
+		return top.toList();
+	}
+
+	private void showDocSuggestions(String currentWord, int caretPosition, List<IntellisenseItem> suggestions) {
+		if (suggestions.size() == 1 && currentWord.equals(suggestions.getFirst().getName())) {
+			completionPopup.showDocumentation(suggestions.getFirst(), caretPosition);
+		} else {
+			completionPopup.show(suggestions, caretPosition,
+							suggestion -> replaceWord(docWordStart, docWordEnd, ((IntellisenseItem) suggestion).getName()));
+		}
+	}
+
+	private void replaceWord(int start, int end, String word) {
+		completionStats.recordUsage(word);
+		try {
+			getDocument().remove(start, end - start);
+			getDocument().insertString(start, word, null);
+			setCaretPosition(start + word.length());
 		} catch (BadLocationException ex) {
 			ex.printStackTrace();
 		}
 	}
 
-	private final java.util.List<FoldRegion> foldRegions = new ArrayList<>();
-
 	public boolean isParagraphHidden(int startOffset) {
 		Element root = getDocument().getDefaultRootElement();
-		int line = root.getElementIndex(startOffset);
-		for (FoldRegion fr : foldRegions) {
-			if (!fr.collapsed) {
-				continue;
-			}
-			int sLine = getLineFromOffset(fr.getStartOffset());
-			int eLine = getLineFromOffset(fr.getEndOffset());
-			// Hide lines between start and end, including end line
-			if (line > sLine && line <= eLine) {
-				return true;
-			}
-		}
-		return false;
+		return foldModel.isHidden(root.getElementIndex(startOffset));
 	}
 
 	private int getLineFromOffset(int offset) {
@@ -711,21 +825,12 @@ public final class CodePane extends JTextPane {
 	}
 
 	protected boolean isFoldStartLine(int line) {
-		for (FoldRegion fr : foldRegions) {
-			if (getLineFromOffset(fr.getStartOffset()) == line) {
-				return true;
-			}
-		}
-		return false;
+		return foldModel.getRegionAt(line) != null;
 	}
 
 	protected boolean isFoldCollapsed(int line) {
-		for (FoldRegion fr : foldRegions) {
-			if (getLineFromOffset(fr.getStartOffset()) == line) {
-				return fr.collapsed;
-			}
-		}
-		return false;
+		FoldRegion fr = foldModel.getRegionAt(line);
+		return fr != null && fr.collapsed;
 	}
 
 	protected boolean isLineVisible(int line) {
@@ -743,58 +848,44 @@ public final class CodePane extends JTextPane {
 
 	protected int getDisplayLineNumber(int line) {
 		// Calculate the displayed line number (skipping collapsed lines)
-		// Count how many visible lines are before this line, plus 1 for this line if visible
-		int displayLine = 1;
-		for (int i = 0; i < line; i++) {
-			if (isLineVisible(i)) {
-				displayLine++;
-			}
-		}
 		// If this line itself is not visible, return -1 (shouldn't happen, but handle it)
 		if (!isLineVisible(line)) {
 			return -1;
 		}
-		return displayLine;
+		return foldModel.getVisualLine(line) + 1;
+	}
+
+	/**
+	 * @return the line shown on visual row {@code row}, counting only the
+	 * lines that are not folded away, or -1 past the last one
+	 */
+	protected int getLineAtVisualRow(int row) {
+		return foldModel.getLineAtVisualLine(row);
 	}
 
 	protected int getHiddenLineCount(int line) {
 		// Get the number of lines hidden by a fold starting at this line
-		for (FoldRegion fr : foldRegions) {
-			if (getLineFromOffset(fr.getStartOffset()) == line && fr.collapsed) {
-				int startLine = getLineFromOffset(fr.getStartOffset());
-				int endLine = getLineFromOffset(fr.getEndOffset());
-				return Math.max(0, endLine - startLine);
-			}
-		}
-		return 0;
+		int endLine = foldModel.getCollapsedEndLine(line);
+		return endLine < 0 ? 0 : endLine - line;
 	}
 
 	protected int getHiddenLineCountAfterFold(int line) {
 		// Check if this line is the first visible line after a collapsed fold
 		// Returns the number of hidden lines, or 0 if not after a fold
-		for (FoldRegion fr : foldRegions) {
-			if (!fr.collapsed) {
-				continue;
-			}
-			int foldStartLine = getLineFromOffset(fr.getStartOffset());
-			int foldEndLine = getLineFromOffset(fr.getEndOffset());
-			// Check if this line immediately follows the fold end
-			if (line == foldEndLine + 1) {
-				return Math.max(0, foldEndLine - foldStartLine);
-			}
+		int hidingLine = foldModel.getHidingLine(line - 1);
+		if (hidingLine < 0 || foldModel.getHidingLine(line) == hidingLine) {
+			return 0;
 		}
-		return 0;
+		return line - 1 - hidingLine;
 	}
 
 	protected void toggleFoldAtLine(int line) {
 		// If already a region starting here, just toggle/remove
-		for (Iterator<FoldRegion> it = foldRegions.iterator(); it.hasNext();) {
-			FoldRegion fr = it.next();
-			if (getLineFromOffset(fr.getStartOffset()) == line) {
-				fr.collapsed = !fr.collapsed;
-				invalidateAffectedViews(fr);
-				return;
-			}
+		FoldRegion existing = foldModel.getRegionAt(line);
+		if (existing != null) {
+			foldModel.setCollapsed(existing, !existing.collapsed);
+			invalidateAffectedViews(existing);
+			return;
 		}
 		// Create new region using triggers
 		int[] region = findRegionFromLineUsingTriggers(line);
@@ -805,160 +896,191 @@ public final class CodePane extends JTextPane {
 			Position startPos = getDocument().createPosition(getDocument().getDefaultRootElement().getElement(region[0]).getStartOffset());
 			Position endPos = getDocument().createPosition(getDocument().getDefaultRootElement().getElement(region[1]).getStartOffset());
 			FoldRegion newFr = new FoldRegion(startPos, endPos, true);
-			foldRegions.add(newFr);
+			foldModel.add(newFr);
 			invalidateAffectedViews(newFr);
 		} catch (BadLocationException e) {
 			// ignore
 		}
 	}
 
-	private void invalidateAffectedViews(FoldRegion fr) {
-		// Force complete view hierarchy invalidation and recalculation
-		View rootView = getUI().getRootView(this);
-		if (rootView != null) {
-			// Get current component size
-			int width = getWidth();
-			int height = getHeight();
-			if (width <= 0) {
-				width = getPreferredSize().width;
-			}
-			if (height <= 0) {
-				height = getPreferredSize().height;
-			}
+	public void collapseAllFolds() {
+		updateFolds((fr, depth) -> true);
+	}
 
-			// Force view hierarchy to recalculate by setting size and invalidating
-			rootView.setSize(width, height);
-			rootView.preferenceChanged(null, true, true);
+	public void expandAllFolds() {
+		updateFolds((fr, depth) -> false);
+	}
 
-			// Traverse view hierarchy and invalidate affected paragraph views
-			invalidateViewHierarchy(rootView, fr);
-		}
+	/**
+	 * Expands the regions nested less than {@code depth} levels deep and
+	 * collapses the others, 0 collapses all of them.
+	 */
+	public void collapseFoldsToDepth(int depth) {
+		updateFolds((fr, d) -> d >= depth);
+	}
 
-		// Invalidate and force layout recalculation
-		invalidate();
-		revalidate();
+	/**
+	 * Collapses the regions {@code filter} accepts, the others are left as
+	 * they are.
+	 */
+	public void collapseFolds(Predicate<FoldRegion> filter) {
+		updateFolds((fr, depth) -> fr.collapsed || filter.test(fr));
+	}
 
-		// Force repaint
-		repaint();
+	public void expandFolds(Predicate<FoldRegion> filter) {
+		updateFolds((fr, depth) -> fr.collapsed && !filter.test(fr));
+	}
+
+	/**
+	 * @return the start lines, 0 based, of the collapsed regions. Handing
+	 * them to {@link #setCollapsedFoldLines} restores the folding.
+	 */
+	public int[] getCollapsedFoldLines() {
+		return foldModel.getCollapsedLines();
+	}
 
-		// Also invalidate parent scroll pane if any
-		Container parent = getParent();
-		while (parent != null && !(parent instanceof JScrollPane)) {
-			parent = parent.getParent();
+	/**
+	 * Collapses the regions starting on {@code lines} and expands the
+	 * others. While the regions are still being matched, after the text
+	 * was loaded or edited, the lines are applied once they are ready.
+	 */
+	public void setCollapsedFoldLines(int[] lines) {
+		int[] sorted = lines.clone();
+		java.util.Arrays.sort(sorted);
+		boolean matching = foldProvider != null ? foldProvider.isDirty() : foldMatchedVersion != foldTriggers.getVersion();
+		if (autoFoldingEnabled && matching) {
+			restoredCollapsedLines = sorted;
+			return;
 		}
-		if (parent != null) {
-			parent.invalidate();
-			parent.revalidate();
+		restoredCollapsedLines = null;
+		updateFolds((fr, depth) -> java.util.Arrays.binarySearch(sorted, foldModel.getStartLine(fr)) >= 0);
+	}
+
+	/**
+	 * Sets the collapsed state of all regions at once, with a single
+	 * relayout of the lines between the first and the last one that changed.
+	 */
+	private void updateFolds(BiPredicate<FoldRegion, Integer> collapsed) {
+		int[] changed = foldModel.updateCollapsed(collapsed);
+		if (changed == null) {
+			return;
+		}
+		invalidateFoldedLines(changed[0], changed[1]);
+		// keep the caret out of the folded lines
+		if (foldModel.isHidden(getDocument().getDefaultRootElement().getElementIndex(getCaretPosition()))) {
+			setCaretPosition(getCaretPosition());
 		}
 	}
 
-	private void invalidateViewHierarchy(View view, FoldRegion fr) {
-		if (view == null) {
+	private void invalidateAffectedViews(FoldRegion fr) {
+		invalidateFoldedLines(foldModel.getStartLine(fr), foldModel.getEndLine(fr));
+	}
+
+	/**
+	 * Relayouts the editor after the lines after {@code startLine} up to
+	 * {@code endLine} were folded or unfolded.
+	 *
+	 * The paragraph views of those lines take their height from the fold
+	 * model, so nothing inside them has to be laid out again. Only the box
+	 * holding them recomputes the offsets of its children, and only the
+	 * area from the first changed line down is repainted.
+	 */
+	private void invalidateFoldedLines(int startLine, int endLine) {
+		Element root = getDocument().getDefaultRootElement();
+		if (startLine < 0 || endLine >= root.getElementCount() || endLine <= startLine) {
 			return;
 		}
+		View first = getParagraphView(root.getElement(startLine + 1).getStartOffset());
+		if (first != null && first.getParent() != null) {
+			first.getParent().preferenceChanged(first, false, true);
+		}
 
-		// If this is a paragraph view, check if it's affected
-		if (view instanceof FoldingParagraphView) {
-			try {
-				int offset = view.getStartOffset();
-				if (isParagraphHidden(offset)) {
-					// This view should have 0 height - notify parent
-					View parent = view.getParent();
-					if (parent != null) {
-						parent.preferenceChanged(view, true, true);
-					}
-				} else {
-					// View should be visible - also notify parent in case it was hidden before
-					View parent = view.getParent();
-					if (parent != null) {
-						parent.preferenceChanged(view, true, true);
-					}
-				}
-			} catch (Exception ignored) {
+		Rectangle visible = getVisibleRect();
+		int top = visible.y;
+		try {
+			var r = modelToView2D(root.getElement(startLine).getStartOffset());
+			if (r != null) {
+				top = Math.max(top, (int) (r.getY() + r.getHeight()));
 			}
+		} catch (BadLocationException ignored) {
+		}
+		int bottom = visible.y + visible.height;
+		if (top < bottom) {
+			repaint(visible.x, top, visible.width, bottom - top);
 		}
+	}
 
-		// Recursively invalidate children
-		int count = view.getViewCount();
-		for (int i = 0; i < count; i++) {
-			View child = view.getView(i);
-			if (child != null) {
-				invalidateViewHierarchy(child, fr);
-			}
+	// the paragraph view showing the line at offset, or null
+	private View getParagraphView(int offset) {
+		View view = getUI().getRootView(this);
+		while (view != null && !(view instanceof FoldingParagraphView)) {
+			int index = view.getViewIndex(offset, Position.Bias.Forward);
+			view = index >= 0 && index < view.getViewCount() ? view.getView(index) : null;
 		}
+		return view;
 	}
 
 	private int[] findRegionFromLineUsingTriggers(int line) {
-		try {
-			int lineStart = getLineStartOffset(line);
-			int lineEnd = getDocument().getDefaultRootElement().getElement(line).getEndOffset();
-			String lineText = getDocument().getText(lineStart, lineEnd - lineStart);
-
-			// Try each trigger pair in order
-			for (java.util.Map.Entry<String, String> pair : foldTriggerPairs.entrySet()) {
-				String startSymbol = pair.getKey();
-				String endSymbol = pair.getValue();
-				int startIdx = lineText.indexOf(startSymbol);
-				if (startIdx >= 0) {
-					int[] region = findRegionFromOffset(lineStart + startIdx, startSymbol, endSymbol);
-					if (region != null) {
-						return region;
-					}
+		int lineStart = getLineStartOffset(line);
+		int lineEnd = Math.min(getDocument().getDefaultRootElement().getElement(line).getEndOffset(), getDocument().getLength());
+		DocumentText lineText = new DocumentText(getDocument(), lineStart, Math.max(lineStart, lineEnd));
+
+		// Try each trigger pair in order
+		for (java.util.Map.Entry<String, String> pair : foldTriggerPairs.entrySet()) {
+			String startSymbol = pair.getKey();
+			String endSymbol = pair.getValue();
+			int startIdx = lineText.indexOf(startSymbol, 0);
+			if (startIdx >= 0) {
+				int[] region = findRegionFromOffset(lineStart + startIdx, startSymbol, endSymbol);
+				if (region != null) {
+					return region;
 				}
 			}
-		} catch (BadLocationException ignored) {
 		}
 		return null;
 	}
 
 	private int[] findRegionFromOffset(int startOffset, String startSymbol, String endSymbol) {
-		try {
-			int docLen = getDocument().getLength();
-			int pos = startOffset + startSymbol.length();
-			int startLine = getLineFromOffset(startOffset);
-
-			// For single-character symbols, use simple stack-based matching
-			if (startSymbol.length() == 1 && endSymbol.length() == 1) {
-				char startChar = startSymbol.charAt(0);
-				char endChar = endSymbol.charAt(0);
-				int depth = 1;
-				for (; pos < docLen; pos++) {
-					char c = getDocument().getText(pos, 1).charAt(0);
-					if (c == startChar) {
-						depth++;
-					} else if (c == endChar) {
-						depth--;
-						if (depth == 0) {
-							int endLine = getLineFromOffset(pos);
-							return new int[]{startLine, endLine};
-						}
+		DocumentText text = new DocumentText(getDocument());
+		int docLen = text.length();
+		int pos = startOffset + startSymbol.length();
+		int startLine = getLineFromOffset(startOffset);
+
+		// For single-character symbols, use simple stack-based matching
+		if (startSymbol.length() == 1 && endSymbol.length() == 1) {
+			char startChar = startSymbol.charAt(0);
+			char endChar = endSymbol.charAt(0);
+			int depth = 1;
+			for (; pos < docLen; pos++) {
+				char c = text.charAt(pos);
+				if (c == startChar) {
+					depth++;
+				} else if (c == endChar) {
+					depth--;
+					if (depth == 0) {
+						int endLine = getLineFromOffset(pos);
+						return new int[]{startLine, endLine};
 					}
 				}
-			} else {
-				// For multi-character symbols (like /* */)
-				int endLen = endSymbol.length();
-				int depth = 1;
-				for (; pos < docLen - endLen + 1; pos++) {
-					String substr = getDocument().getText(pos, Math.min(endLen, docLen - pos));
-					if (substr.equals(endSymbol)) {
-						depth--;
-						if (depth == 0) {
-							int endLine = getLineFromOffset(pos + endLen - 1);
-							return new int[]{startLine, endLine};
-						}
-					}
-					// Also check for nested start symbols
-					if (pos + startSymbol.length() <= docLen) {
-						String startSubstr = getDocument().getText(pos, Math.min(startSymbol.length(), docLen - pos));
-						if (startSubstr.equals(startSymbol)) {
-							depth++;
-							pos += startSymbol.length() - 1; // Skip ahead to avoid re-checking
-						}
+			}
+		} else {
+			// For multi-character symbols (like /* */)
+			int endLen = endSymbol.length();
+			int depth = 1;
+			for (; pos < docLen - endLen + 1; pos++) {
+				if (text.startsWith(endSymbol, pos)) {
+					depth--;
+					if (depth == 0) {
+						int endLine = getLineFromOffset(pos + endLen - 1);
+						return new int[]{startLine, endLine};
 					}
 				}
+				// Also check for nested start symbols
+				if (text.startsWith(startSymbol, pos)) {
+					depth++;
+					pos += startSymbol.length() - 1; // Skip ahead to avoid re-checking
+				}
 			}
-		} catch (BadLocationException e) {
-			// ignore
 		}
 		return null;
 	}
@@ -972,6 +1094,7 @@ public final class CodePane extends JTextPane {
 		if (pairs != null) {
 			this.foldTriggerPairs.putAll(pairs);
 		}
+		foldTriggers.setPairs(foldTriggerPairs);
 		if (autoFoldingEnabled) {
 			rebuildFoldRegions();
 		}
@@ -979,6 +1102,7 @@ public final class CodePane extends JTextPane {
 
 	public void setFoldTriggerPair(String start, String end) {
 		this.foldTriggerPairs.put(start, end);
+		foldTriggers.setPairs(foldTriggerPairs);
 		if (autoFoldingEnabled) {
 			rebuildFoldRegions();
 		}
@@ -988,95 +1112,173 @@ public final class CodePane extends JTextPane {
 		return java.util.Collections.unmodifiableMap(foldTriggerPairs);
 	}
 
+	/**
+	 * Computes the fold regions with {@code provider} instead of the
+	 * trigger pairs, null goes back to the trigger pairs. The current
+	 * regions are dropped.
+	 */
+	public void setFoldProvider(FoldProvider provider) {
+		foldProvider = provider;
+		foldModel.clear();
+		Element root = getDocument().getDefaultRootElement();
+		invalidateFoldedLines(0, root.getElementCount() - 1);
+		if (provider != null) {
+			provider.linesChanged(0, 0, root.getElementCount());
+			scheduleFoldUpdate();
+		} else {
+			foldTriggerChanges = -1;
+			if (autoFoldingEnabled) {
+				rebuildFoldRegions();
+			}
+		}
+	}
+
+	public FoldProvider getFoldProvider() {
+		return foldProvider;
+	}
+
+	/**
+	 * Tells the fold provider which lines an edit replaced. A styled document
+	 * changes the first and last line of a multi-line edit in place, outside
+	 * of the element change, so those are counted as replaced too.
+	 */
+	private void foldLinesChanged(DocumentEvent e) {
+		FoldProvider provider = foldProvider;
+		if (provider == null) {
+			return;
+		}
+		Element root = getDocument().getDefaultRootElement();
+		int first = root.getElementIndex(e.getOffset());
+		int last = root.getElementIndex(e.getType() == DocumentEvent.EventType.INSERT ? e.getOffset() + e.getLength() : e.getOffset());
+		DocumentEvent.ElementChange change = e.getChange(root);
+		int index = change != null ? change.getIndex() : first;
+		int removed = change != null ? change.getChildrenRemoved().length : 0;
+		int added = change != null ? change.getChildrenAdded().length : 0;
+		int line = Math.min(index, first);
+		int end = Math.max(index + added, last + 1);
+		provider.linesChanged(line, end - line - added + removed, end - line);
+		scheduleFoldUpdate();
+	}
+
+	private void scheduleFoldUpdate() {
+		if (!foldUpdateScheduled && autoFoldingEnabled) {
+			foldUpdateScheduled = true;
+			SwingUtilities.invokeLater(this::updateFoldProvider);
+		}
+	}
+
+	/**
+	 * Lets the fold provider look at the changed lines and applies the
+	 * regions it changed. A provider working in steps is called again after
+	 * the pending events.
+	 */
+	private void updateFoldProvider() {
+		foldUpdateScheduled = false;
+		FoldProvider provider = foldProvider;
+		if (provider == null || !autoFoldingEnabled) {
+			return;
+		}
+		FoldDelta[] delta = {FoldDelta.NONE};
+		if (getDocument() instanceof AbstractDocument ad) {
+			ad.render(() -> delta[0] = provider.update(ad));
+		} else {
+			delta[0] = provider.update(getDocument());
+		}
+		if (!delta[0].isEmpty()) {
+			if (foldModel.apply(delta[0])) {
+				invalidateFoldedLines(delta[0].lines[0], getDocument().getDefaultRootElement().getElementCount() - 1);
+			}
+			repaint();
+		}
+		if (provider.isDirty()) {
+			scheduleFoldUpdate();
+		} else if (restoredCollapsedLines != null) {
+			setCollapsedFoldLines(restoredCollapsedLines);
+		}
+	}
+
+	/**
+	 * Matches the fold triggers on a worker. Only one pass runs at a time,
+	 * edits coming in meanwhile start another one once it is done.
+	 */
 	private void rebuildFoldRegions() {
-		// Preserve collapsed state by start-line when possible
+		if (foldProvider != null) {
+			return;
+		}
+		if (foldPassRunning) {
+			foldPassPending = true;
+			return;
+		}
+		foldPassRunning = true;
+		foldPassPending = false;
+		Thread.startVirtualThread(() -> {
+			FoldTriggerIndex.Regions regions = null;
+			try {
+				regions = foldTriggers.match();
+			} finally {
+				FoldTriggerIndex.Regions matched = regions;
+				SwingUtilities.invokeLater(() -> foldRegionsMatched(matched));
+			}
+		});
+	}
+
+	private void foldRegionsMatched(FoldTriggerIndex.Regions regions) {
+		foldPassRunning = false;
+		// regions of an older version are dropped, the line numbers are off
+		if (regions != null && regions.version == foldTriggers.getVersion() && foldProvider == null) {
+			foldMatchedVersion = regions.version;
+			if (regions.changeCount != foldTriggerChanges) {
+				foldTriggerChanges = regions.changeCount;
+				applyFoldRegions(regions.lines);
+			}
+			if (restoredCollapsedLines != null) {
+				setCollapsedFoldLines(restoredCollapsedLines);
+			}
+		}
+		if (foldPassPending) {
+			rebuildFoldRegions();
+		}
+	}
+
+	private void applyFoldRegions(int[] matched) {
+		List<FoldRegion> current = foldModel.getRegions();
+
+		// Reuse the regions that still span the same lines, they keep their
+		// positions and collapsed state. Otherwise preserve collapsed state by
+		// start-line when possible
+		java.util.Map<Long, java.util.ArrayDeque<FoldRegion>> reusable = new java.util.HashMap<>();
 		java.util.Set<Integer> collapsedStarts = new java.util.HashSet<>();
-		for (FoldRegion fr : foldRegions) {
+		for (FoldRegion fr : current) {
+			int startLine = foldModel.getStartLine(fr);
+			long key = (long) startLine << 32 | foldModel.getEndLine(fr);
+			reusable.computeIfAbsent(key, k -> new java.util.ArrayDeque<>()).add(fr);
 			if (fr.collapsed) {
-				collapsedStarts.add(getLineFromOffset(fr.getStartOffset()));
+				collapsedStarts.add(startLine);
 			}
 		}
-		foldRegions.clear();
 
+		List<FoldRegion> foldRegions = new ArrayList<>(matched.length / 2);
+		boolean changed = matched.length / 2 != current.size();
 		try {
-			String text = getDocument().getText(0, getDocument().getLength());
-			int len = text.length();
 			Element root = getDocument().getDefaultRootElement();
-
-			// Process each trigger pair
-			for (java.util.Map.Entry<String, String> pair : foldTriggerPairs.entrySet()) {
-				String startSymbol = pair.getKey();
-				String endSymbol = pair.getValue();
-
-				if (startSymbol.length() == 1 && endSymbol.length() == 1) {
-					// Single-character symbols - use stack-based matching
-					char startChar = startSymbol.charAt(0);
-					char endChar = endSymbol.charAt(0);
-					java.util.Deque<Integer> stack = new java.util.ArrayDeque<>();
-					for (int i = 0; i < len; i++) {
-						char ch = text.charAt(i);
-						if (ch == startChar) {
-							stack.push(i);
-						} else if (ch == endChar) {
-							if (!stack.isEmpty()) {
-								int start = stack.pop();
-								int startLine = getLineFromOffset(start);
-								int endLine = getLineFromOffset(i);
-								if (endLine > startLine) {
-									Position sp = getDocument().createPosition(root.getElement(startLine).getStartOffset());
-									Position ep = getDocument().createPosition(root.getElement(endLine).getStartOffset());
-									FoldRegion fr = new FoldRegion(sp, ep, collapsedStarts.contains(startLine));
-									foldRegions.add(fr);
-								}
-							}
-						}
-					}
-				} else {
-					// Multi-character symbols - scan linearly
-					int startLen = startSymbol.length();
-					int endLen = endSymbol.length();
-					int i = 0;
-					while (i < len - startLen + 1) {
-						String substr = text.substring(i, Math.min(i + startLen, len));
-						if (substr.equals(startSymbol)) {
-							int start = i;
-							i += startLen;
-							int depth = 1;
-							while (i < len - endLen + 1 && depth > 0) {
-								String endSubstr = text.substring(i, Math.min(i + endLen, len));
-								if (endSubstr.equals(endSymbol)) {
-									depth--;
-									if (depth == 0) {
-										int end = i + endLen - 1;
-										int startLine = getLineFromOffset(start);
-										int endLine = getLineFromOffset(end);
-										if (endLine > startLine) {
-											Position sp = getDocument().createPosition(root.getElement(startLine).getStartOffset());
-											Position ep = getDocument().createPosition(root.getElement(endLine).getStartOffset());
-											FoldRegion fr = new FoldRegion(sp, ep, collapsedStarts.contains(startLine));
-											foldRegions.add(fr);
-										}
-										i = end + 1;
-										break;
-									}
-								} else if (i + startLen <= len) {
-									String nextStartSubstr = text.substring(i, Math.min(i + startLen, len));
-									if (nextStartSubstr.equals(startSymbol)) {
-										depth++;
-										i += startLen;
-										continue;
-									}
-								}
-								i++;
-							}
-							continue;
-						}
-						i++;
-					}
+			for (int i = 0; i < matched.length; i += 2) {
+				int startLine = matched[i];
+				int endLine = matched[i + 1];
+				java.util.ArrayDeque<FoldRegion> same = reusable.get((long) startLine << 32 | endLine);
+				FoldRegion fr = same == null ? null : same.poll();
+				if (fr == null) {
+					Position sp = getDocument().createPosition(root.getElement(startLine).getStartOffset());
+					Position ep = getDocument().createPosition(root.getElement(endLine).getStartOffset());
+					fr = new FoldRegion(sp, ep, collapsedStarts.contains(startLine));
 				}
+				changed |= foldRegions.size() >= current.size() || current.get(foldRegions.size()) != fr;
+				foldRegions.add(fr);
 			}
 		} catch (BadLocationException ignored) {
 		}
+		if (changed) {
+			foldModel.setRegions(foldRegions);
+		}
 
 		repaint();
 	}
@@ -1086,19 +1288,11 @@ public final class CodePane extends JTextPane {
 		try {
 			Element root = getDocument().getDefaultRootElement();
 			int line = root.getElementIndex(position);
-			if (isParagraphHidden(root.getElement(line).getStartOffset())) {
+			int foldLine = foldModel.getHidingLine(line);
+			if (foldLine >= 0) {
 				// snap to start line of the fold
-				for (FoldRegion fr : foldRegions) {
-					if (!fr.collapsed) {
-						continue;
-					}
-					int sLine = getLineFromOffset(fr.getStartOffset());
-					int eLine = getLineFromOffset(Math.max(fr.getEndOffset() - 1, 0));
-					if (line > sLine && line <= eLine) {
-						super.setCaretPosition(root.getElement(sLine).getStartOffset());
-						return;
-					}
-				}
+				super.setCaretPosition(root.getElement(foldLine).getStartOffset());
+				return;
 			}
 		} catch (Exception ignored) {
 		}
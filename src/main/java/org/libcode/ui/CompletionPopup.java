@@ -0,0 +1,236 @@
+package org.libcode.ui;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import javax.swing.AbstractListModel;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JComponent;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JPopupMenu;
+import javax.swing.JScrollPane;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.JTextComponent;
+import org.libcode.intelisense.IntellisenseItem;
+
+/**
+ * Completion popup of an editor, created once and reused for every
+ * keystroke.
+ *
+ * Suggestions are shown in a {@link JList} whose model wraps the result list
+ * as is and whose rows all have the same height, so only the visible rows are
+ * ever rendered, by a single renderer. When the selected suggestion is an
+ * {@link IntellisenseItem} its documentation is shown next to the list.
+ *
+ * @author hexaredecimal
+ */
+public class CompletionPopup {
+
+	private static final int VISIBLE_ROWS = 10;
+	private static final int LIST_WIDTH = 250;
+
+	private final JTextComponent editor;
+	private final Function<IntellisenseItem, JComponent> documentation;
+	private final JPopupMenu popup = new JPopupMenu();
+	private final SuggestionModel model = new SuggestionModel();
+	private final JList<Object> list = new JList<>(model);
+	private final JScrollPane scroll = new JScrollPane(list);
+	private final JPanel docHolder = new JPanel(new BorderLayout());
+	private Consumer<Object> onAccept;
+	private int anchor = -1;
+
+	public CompletionPopup(JTextComponent editor, Function<IntellisenseItem, JComponent> documentation) {
+		this.editor = editor;
+		this.documentation = documentation;
+
+		list.setFocusable(false);
+		list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		list.setFixedCellHeight(editor.getFontMetrics(editor.getFont()).getHeight() + 4);
+		list.setCellRenderer(new SuggestionRenderer());
+		list.setSelectionBackground(new Color(210, 230, 255));
+		list.setSelectionForeground(Color.BLACK);
+		list.addListSelectionListener(e -> {
+			if (!e.getValueIsAdjusting()) {
+				updateDocumentation();
+			}
+		});
+		list.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				int index = list.locationToIndex(e.getPoint());
+				if (index >= 0) {
+					list.setSelectedIndex(index);
+					acceptSelected();
+				}
+			}
+		});
+
+		scroll.setBorder(null);
+		scroll.setFocusable(false);
+		popup.setFocusable(false);
+		popup.setLayout(new BorderLayout());
+		popup.add(scroll, BorderLayout.WEST);
+		popup.add(docHolder, BorderLayout.CENTER);
+	}
+
+	/**
+	 * Shows {@code suggestions} below {@code caretPosition}, or hides the
+	 * popup when there are none. The list is not copied, it must not change
+	 * while it is shown.
+	 */
+	public void show(List<?> suggestions, int caretPosition, Consumer<Object> onAccept) {
+		if (suggestions.isEmpty()) {
+			hide();
+			return;
+		}
+		this.onAccept = onAccept;
+		model.setItems(suggestions);
+		scroll.setVisible(true);
+		int rows = Math.min(VISIBLE_ROWS, suggestions.size());
+		scroll.setPreferredSize(new Dimension(LIST_WIDTH, rows * list.getFixedCellHeight() + 2));
+		list.setSelectedIndex(0);
+		list.ensureIndexIsVisible(0);
+		updateDocumentation();
+		showAt(caretPosition);
+	}
+
+	/**
+	 * Shows only the documentation of {@code item}.
+	 */
+	public void showDocumentation(IntellisenseItem item, int caretPosition) {
+		onAccept = null;
+		model.setItems(List.of());
+		scroll.setVisible(false);
+		docHolder.removeAll();
+		docHolder.add(documentation.apply(item), BorderLayout.CENTER);
+		docHolder.setVisible(true);
+		showAt(caretPosition);
+	}
+
+	public void hide() {
+		popup.setVisible(false);
+		model.setItems(List.of());
+		onAccept = null;
+		anchor = -1;
+	}
+
+	public boolean isVisible() {
+		return popup.isVisible();
+	}
+
+	public int getSuggestionCount() {
+		return model.getSize();
+	}
+
+	public void selectNext() {
+		select((list.getSelectedIndex() + 1) % Math.max(1, model.getSize()));
+	}
+
+	public void selectPrevious() {
+		int count = Math.max(1, model.getSize());
+		select((list.getSelectedIndex() - 1 + count) % count);
+	}
+
+	private void select(int index) {
+		if (index < model.getSize()) {
+			list.setSelectedIndex(index);
+			list.ensureIndexIsVisible(index);
+		}
+	}
+
+	public void acceptSelected() {
+		Object selected = list.getSelectedValue();
+		Consumer<Object> accept = onAccept;
+		hide();
+		if (selected != null && accept != null) {
+			accept.accept(selected);
+		}
+	}
+
+	private void updateDocumentation() {
+		Object selected = list.getSelectedValue();
+		docHolder.removeAll();
+		boolean hasDoc = selected instanceof IntellisenseItem;
+		if (hasDoc) {
+			docHolder.add(documentation.apply((IntellisenseItem) selected), BorderLayout.CENTER);
+		}
+		docHolder.setVisible(hasDoc);
+		if (popup.isVisible()) {
+			popup.pack();
+		}
+	}
+
+	private void showAt(int caretPosition) {
+		try {
+			var r = editor.modelToView2D(caretPosition);
+			if (r == null) {
+				return;
+			}
+			Point p = r.getBounds().getLocation();
+			p.y += editor.getFontMetrics(editor.getFont()).getHeight();
+			if (popup.isVisible() && anchor == caretPosition) {
+				popup.pack();
+			} else if (popup.isVisible()) {
+				SwingUtilities.convertPointToScreen(p, editor);
+				popup.pack();
+				popup.setLocation(p.x, p.y);
+			} else {
+				popup.pack();
+				popup.show(editor, p.x, p.y);
+			}
+			anchor = caretPosition;
+		} catch (BadLocationException e) {
+			hide();
+		}
+	}
+
+	/**
+	 * Wraps the result list without copying it.
+	 */
+	private static final class SuggestionModel extends AbstractListModel<Object> {
+
+		private List<?> items = List.of();
+
+		void setItems(List<?> items) {
+			int oldSize = this.items.size();
+			this.items = items;
+			if (oldSize > items.size()) {
+				fireIntervalRemoved(this, items.size(), oldSize - 1);
+			} else if (oldSize < items.size()) {
+				fireIntervalAdded(this, oldSize, items.size() - 1);
+			}
+			if (Math.min(oldSize, items.size()) > 0) {
+				fireContentsChanged(this, 0, Math.min(oldSize, items.size()) - 1);
+			}
+		}
+
+		@Override
+		public int getSize() {
+			return items.size();
+		}
+
+		@Override
+		public Object getElementAt(int index) {
+			return items.get(index);
+		}
+	}
+
+	private static final class SuggestionRenderer extends DefaultListCellRenderer {
+
+		@Override
+		public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+			String text = value instanceof IntellisenseItem item ? item.getName() : String.valueOf(value);
+			return super.getListCellRendererComponent(list, text, index, isSelected, false);
+		}
+	}
+}
@@ -92,7 +92,7 @@ public class Gutter extends JComponent {
 					return -1;
 				}
 				int scrollOffset = viewport.getViewPosition().y;
-				return (y + scrollOffset) / lineHeight;
+				return toLine((y + scrollOffset) / lineHeight);
 			}
 		});
 	}
@@ -198,7 +198,12 @@ public class Gutter extends JComponent {
 		}
 		int lineHeight = textPane.getFontMetrics(textPane.getFont()).getHeight();
 		int scrollOffset = ((JViewport) getParent()).getViewPosition().y; // adjust for scroll
-		return (mousePos.y + scrollOffset) / lineHeight;
+		return toLine((mousePos.y + scrollOffset) / lineHeight);
+	}
+
+	// visual rows skip the folded lines
+	private int toLine(int row) {
+		return textPane instanceof CodePane ctp ? ctp.getLineAtVisualRow(row) : row;
 	}
 
 	@Override
@@ -218,11 +223,15 @@ public class Gutter extends JComponent {
 		g.setFont(gutterFont);
 
 		if (textPane instanceof CodePane ctp) {
-			// Paint visible lines continuously without gaps
-			int visualY = 0; // Track visual Y position (no gaps)
-			for (int i = 0; i < lineCount; i++) {
-				if (!ctp.isLineVisible(i)) {
-					continue; // Skip collapsed lines
+			// Paint visible lines continuously without gaps, only the rows in the clip
+			Rectangle clip = g.getClipBounds();
+			int firstRow = clip == null ? 0 : Math.max(0, clip.y / lineHeight);
+			int lastRow = clip == null ? lineCount : (clip.y + clip.height) / lineHeight;
+			int currentDisplayNum = ctp.getDisplayLineNumber(currentLine);
+			for (int visualY = firstRow; visualY <= lastRow; visualY++) {
+				int i = ctp.getLineAtVisualRow(visualY);
+				if (i < 0) {
+					break;
 				}
 				int lineY = visualY * lineHeight + fm.getAscent();
 				int lineYTop = visualY * lineHeight;
@@ -236,7 +245,7 @@ public class Gutter extends JComponent {
 				// Line numbers - use displayed line number (skipping collapsed lines)
 				int displayNum = ctp.getDisplayLineNumber(i);
 				String lineNumber = (mode == LineNumberMode.ABSOLUTE) ? String.valueOf(displayNum)
-								: (i == currentLine ? "0" : String.valueOf(Math.abs(displayNum - ctp.getDisplayLineNumber(currentLine))));
+								: (i == currentLine ? "0" : String.valueOf(Math.abs(displayNum - currentDisplayNum)));
 				int stringWidth = fm.stringWidth(lineNumber);
 				g.setColor(Colors.getGutterForegroundColor());
 				g.drawString(lineNumber, getWidth() - stringWidth - 10, lineY);
@@ -273,8 +282,6 @@ public class Gutter extends JComponent {
 					g.setColor(Colors.getFoldToggleColor());
 					g.fillPolygon(tri);
 				}
-
-				visualY++; // Increment visual Y position for next visible line
 			}
 		} else {
 			// Fallback for non-CustomTextPane (shouldn't happen)